@@ -0,0 +1,81 @@
+package org.graylog2.plugins.slack.benchmarks;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.output.SlackMessageOutput;
+import org.graylog2.streams.StreamImpl;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a Graylog {@link Message} into a Slack payload, with and without serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRenderingBenchmark {
+    @Param({"100", "10000"})
+    public int messageLength;
+
+    @Param({"0", "10", "50"})
+    public int attachmentCount;
+
+    private SlackMessageOutput output;
+    private Stream stream;
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        stream = new StreamImpl(ImmutableMap.<String, Object>of("title", "Benchmark stream"));
+        output = new SlackMessageOutput(stream, new Configuration(ImmutableMap.<String, Object>of(
+                "webhook_url", "http://127.0.0.1/",
+                "channel", "#graylog",
+                "color", "#FF0000"
+        )));
+        message = new Message(Strings.repeat("x", messageLength), "benchmark.example.org", new DateTime(DateTimeZone.UTC));
+    }
+
+    @TearDown
+    public void tearDown() {
+        output.stop();
+    }
+
+    @Benchmark
+    public SlackMessage buildMessage() {
+        return render();
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() {
+        return render().getJsonBytes();
+    }
+
+    private SlackMessage render() {
+        final SlackMessage slackMessage = new SlackMessage("#FF0000", output.buildMessage(stream, message), null, "#graylog");
+        for (int i = 0; i < attachmentCount; i++) {
+            slackMessage.addAttachment(new SlackMessage.AttachmentField("Field " + i, message.getSource(), true));
+        }
+        return slackMessage;
+    }
+}
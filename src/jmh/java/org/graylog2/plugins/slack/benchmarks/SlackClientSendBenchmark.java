@@ -0,0 +1,79 @@
+package org.graylog2.plugins.slack.benchmarks;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackPluginBase;
+import org.graylog2.plugins.slack.SlackTestSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of {@link SlackClient#send(SlackMessage)} against a local webhook stub, including
+ * serialization, the HTTP round-trip and connection reuse. Rate limited requests are counted as
+ * completed operations, since the client fails fast on them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SlackClientSendBenchmark {
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    @Param({"0", "10"})
+    public int rateLimitedPercent;
+
+    @Param({"100", "10000"})
+    public int textLength;
+
+    private SlackTestSupport.WebhookStub stub;
+    private SlackClient client;
+    private SlackMessage message;
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = new SlackTestSupport.WebhookStub(false);
+        stub.setDelay(latencyMillis, TimeUnit.MILLISECONDS);
+        stub.setRateLimitedPercent(rateLimitedPercent);
+        client = new SlackClient(new Configuration(ImmutableMap.<String, Object>of(
+                SlackPluginBase.CK_WEBHOOK_URL, stub.url("/services/T000/B000/XXXX"),
+                SlackPluginBase.CK_MAX_CONNECTIONS, 4
+        )));
+        message = new SlackMessage("#FF0000", Strings.repeat("x", textLength), null, "#graylog");
+    }
+
+    @TearDown
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Benchmark
+    public boolean send() {
+        try {
+            client.send(message);
+            return true;
+        } catch (SlackClient.SlackClientException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.graylog2.plugins.slack.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cached payload skeleton of {@link SlackMessage#getJsonBytes()} with the previous
+ * implementation, which created a new {@link ObjectMapper} and parameter map for every message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlackMessageSerializationBenchmark {
+    private static final String CHANNEL = "#graylog";
+    private static final String COLOR = "#FF0000";
+
+    @Param({"100", "10000"})
+    public int textLength;
+
+    @Param({"0", "10"})
+    public int attachmentFields;
+
+    private SlackMessage message;
+    private String text;
+    private List<SlackMessage.AttachmentField> fields;
+
+    @Setup
+    public void setUp() {
+        text = Strings.repeat("x", textLength);
+        final ImmutableList.Builder<SlackMessage.AttachmentField> builder = ImmutableList.builder();
+        for (int i = 0; i < attachmentFields; i++) {
+            builder.add(new SlackMessage.AttachmentField("Field " + i, "Value " + i, true));
+        }
+        fields = builder.build();
+
+        message = new SlackMessage(COLOR, text, null, CHANNEL);
+        for (SlackMessage.AttachmentField field : fields) {
+            message.addAttachment(field);
+        }
+    }
+
+    @Benchmark
+    public byte[] cachedSkeleton() {
+        return message.getJsonBytes();
+    }
+
+    @Benchmark
+    public String objectMapperPerMessage() throws JsonProcessingException {
+        final Map<String, Object> params = new HashMap<String, Object>() {{
+            put("channel", CHANNEL);
+            put("link_names", "1");
+            put("parse", "none");
+        }};
+        params.put("text", text);
+        if (!fields.isEmpty()) {
+            params.put("attachments", ImmutableList.of(new SlackMessage.Attachment("Alert details", null, "Details:", COLOR, fields)));
+        }
+        params.put("username", "graylog");
+
+        return new ObjectMapper().writeValueAsString(params);
+    }
+}
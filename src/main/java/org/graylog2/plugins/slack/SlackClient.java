@@ -1,92 +1,422 @@
 package org.graylog2.plugins.slack;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
-import com.google.common.io.ByteStreams;
-import org.apache.commons.lang3.StringUtils;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.circuit.CircuitBreaker;
+import org.graylog2.plugins.slack.circuit.SlackCircuitBreakers;
+import org.graylog2.plugins.slack.transport.SlackResponse;
+import org.graylog2.plugins.slack.transport.SlackTransport;
+import org.graylog2.plugins.slack.transport.SlackTransports;
+import org.graylog2.plugins.slack.transport.TransportSettings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
-import java.net.Proxy;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Posts messages to an incoming webhook or, if a bot token is configured, to the Web API's
+ * {@code chat.postMessage} method. Through the Web API, messages with the same
+ * {@link SlackMessage#getThreadKey() thread key} are posted as replies to the first one, and messages which
+ * have {@link SlackMessage#getPostedTs() been posted} before are updated with {@code chat.update}.
+ * <p>
+ * Slack limits every webhook on its own. Through the Web API, every token has limits of its own and
+ * {@code chat.postMessage} is limited per channel, so the circuit breaker is shared by the clients of an
+ * endpoint and token, and the {@link #getRateLimitKey() rate limit} by those of an endpoint, token and channel.
+ */
 public class SlackClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(SlackClient.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    public static final String WEB_API_URL = "https://slack.com/api/chat.postMessage";
+    public static final int DEFAULT_THREAD_TTL = 60;
 
     private final String webhookUrl;
+    private final String rateLimitKey;
+    private final URL url;
+    private final URL updateUrl;
+    private final SlackTransport transport;
+    private final SlackMetrics metrics;
+    private final CircuitBreaker circuitBreaker;
+    private final Map<String, String> headers;
+    private final SlackThreads threads;
 
     public SlackClient(Configuration configuration) {
-        this.webhookUrl = configuration.getString(SlackPluginBase.CK_WEBHOOK_URL);
+        this(configuration, SlackMetrics.unregistered());
+    }
+
+    public SlackClient(Configuration configuration, SlackMetrics metrics) {
+        this(configuration, new SlackTarget(endpoint(configuration), null), metrics);
+    }
+
+    /**
+     * Creates a client for one of the targets of the given configuration.
+     */
+    public SlackClient(Configuration configuration, SlackTarget target, SlackMetrics metrics) {
+        this.webhookUrl = target.getWebhookUrl();
+        this.rateLimitKey = rateLimitKey(configuration, webhookUrl, target.getChannel());
+        this.url = parseUrl(webhookUrl);
+        this.updateUrl = updateUrl(configuration, url);
+        this.transport = url == null ? null : SlackTransports.forUrl(url, transportSettings(configuration));
+        this.metrics = metrics;
+        this.circuitBreaker = circuitBreaker(configuration, webhookUrl, url, true);
+        this.headers = headers(configuration);
+        this.threads = threads(configuration, webhookUrl);
+    }
+
+    public SlackClient(Configuration configuration, SlackTransport transport, SlackMetrics metrics) {
+        this.webhookUrl = endpoint(configuration);
+        this.rateLimitKey = rateLimitKey(configuration, webhookUrl, null);
+        this.url = parseUrl(webhookUrl);
+        this.updateUrl = updateUrl(configuration, url);
+        this.transport = transport;
+        this.metrics = metrics;
+        this.circuitBreaker = circuitBreaker(configuration, webhookUrl, url, false);
+        this.headers = headers(configuration);
+        this.threads = threads(configuration, webhookUrl);
+    }
+
+    /**
+     * @return the URL messages are posted to, the webhook URL(s) or the Web API URL if a bot token is set.
+     */
+    public static String endpoint(Configuration configuration) {
+        if (configuration.stringIsSet(SlackPluginBase.CK_BOT_TOKEN)) {
+            return configuration.getString(SlackPluginBase.CK_API_URL, WEB_API_URL);
+        }
+        return configuration.getString(SlackPluginBase.CK_WEBHOOK_URL);
     }
 
     public void send(SlackMessage message) throws SlackClientException {
-        final URL url;
+        if (url == null) {
+            metrics.failed().mark();
+            throw new SlackClientException("Error while constructing webhook URL.");
+        }
+
+        final boolean update = message.getPostedTs() != null;
+        if (update && updateUrl == null) {
+            metrics.failed().mark();
+            throw new SlackClientException("Messages can only be updated through the Web API.");
+        }
+
+        final String threadKey = threads == null || update ? null : message.getThreadKey();
+        if (threadKey == null) {
+            post(message, update, null);
+            return;
+        }
+
+        final SlackThreads.Conversation conversation = threads.conversation(threadKey);
+        if (!conversation.tryStart()) {
+            // Messages which are posted while the thread is being started don't wait for it, they aren't threaded.
+            post(message, false, conversation.getTs());
+            return;
+        }
+
+        String ts = null;
         try {
-            url = new URL(webhookUrl);
-        } catch (MalformedURLException e) {
-            throw new SlackClientException("Error while constructing webhook URL.", e);
-        }
-        final HttpURLConnection conn;
-        try{
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-        } catch(Exception e) {
-            throw new SlackClientException("error making an httpURL connection");
-        }
-        try (final Writer writer = new OutputStreamWriter(conn.getOutputStream())) {
-            writer.write(message.getJsonString());
-            writer.flush();
-
-            final int responseCode = conn.getResponseCode();
-            if (responseCode != 200) {
-                if(LOG.isDebugEnabled()) {
-                    try (final InputStream responseStream = conn.getInputStream()) {
-                        final byte[] responseBytes = ByteStreams.toByteArray(responseStream);
-                        final String response = new String(responseBytes, Charsets.UTF_8);
-                        LOG.debug("Received HTTP response body:\n{}", response);
-                    }
-                }
-                throw new SlackClientException("Unexpected HTTP response status " + responseCode);
+            ts = post(message, false, null);
+        } finally {
+            if (ts == null) {
+                conversation.startFailed();
+            } else {
+                threads.started(threadKey, conversation, ts);
             }
+        }
+    }
+
+    /**
+     * @param threadTs the timestamp of the thread to reply to or {@code null}.
+     * @return the timestamp of the posted message, or {@code null} if it isn't known.
+     */
+    private String post(SlackMessage message, boolean update, String threadTs) throws SlackClientException {
+        byte[] payload;
+        try (final Timer.Context ignored = metrics.serializeTime().time()) {
+            payload = message.getJsonBytes();
+            if (update) {
+                payload = SlackMessageSerializer.forUpdate(payload, message.getPostedChannel(), message.getPostedTs());
+            } else if (threadTs != null) {
+                payload = SlackMessageSerializer.withThreadTs(payload, threadTs);
+            }
+        }
+        metrics.payloadSize().update(payload.length);
+
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            metrics.shortCircuited().mark();
+            throw new SlackClientException("Circuit breaker of webhook is open, not sending message.", true);
+        }
+
+        final SlackResponse response;
+        try (final Timer.Context ignored = metrics.httpTime().time()) {
+            response = transport.post(update ? updateUrl : url, "application/json; charset=utf-8", headers, payload);
         } catch (IOException e) {
+            metrics.failed().mark();
+            recordOutcome(-1);
             throw new SlackClientException("Could not POST to Slack API", e);
+        } catch (RuntimeException e) {
+            recordOutcome(-1);
+            throw e;
         }
 
-        try (final InputStream responseStream = conn.getInputStream()) {
-            final byte[] responseBytes = ByteStreams.toByteArray(responseStream);
+        recordOutcome(response.getStatusCode());
+        if (response.getStatusCode() != 200) {
+            if (response.getStatusCode() == 429) {
+                metrics.rateLimited().mark();
+            } else {
+                metrics.failed().mark();
+            }
+            LOG.debug("Received HTTP response body:\n{}", response.getBody());
+            throw new SlackClientException("Unexpected HTTP response status " + response.getStatusCode(),
+                    response.getStatusCode(), retryAfterMillis(response));
+        }
 
-            final String response = new String(responseBytes, Charsets.UTF_8);
-            if (response.equals("ok")) {
+        if (headers.isEmpty()) {
+            metrics.sent().mark();
+            if (response.getBody().equals("ok")) {
                 LOG.debug("Successfully sent message to Slack.");
             } else {
-                LOG.warn("Message couldn't be successfully sent. Response was: {}", response);
+                LOG.warn("Message couldn't be successfully sent. Response was: {}", response.getBody());
             }
+            return null;
+        }
+
+        // The Web API responds with HTTP 200 and an error code in the body.
+        final JsonNode body = parseBody(response);
+        if (body == null || !body.path("ok").asBoolean(false)) {
+            metrics.failed().mark();
+            throw new SlackClientException("Slack API error: " + (body == null ? response.getBody() : body.path("error").asText()),
+                    response.getStatusCode(), -1L);
+        }
+
+        metrics.sent().mark();
+        LOG.debug("Successfully sent message to Slack.");
+        if (update) {
+            return null;
+        }
+        final String ts = body.path("ts").asText(null);
+        message.setPosted(body.path("channel").asText(null), ts);
+        return ts;
+    }
+
+    private static JsonNode parseBody(SlackResponse response) {
+        try {
+            return OBJECT_MAPPER.readTree(response.getBody());
         } catch (IOException e) {
-            throw new SlackClientException("Could not read response body from Slack API", e);
+            LOG.debug("Couldn't parse Slack API response <{}>.", response.getBody(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Only I/O errors and server errors mean that the webhook is unavailable, a rate limited or
+     * rejected request doesn't count.
+     */
+    private void recordOutcome(int statusCode) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (statusCode == 200) {
+            circuitBreaker.onSuccess();
+        } else if (statusCode == -1 || statusCode >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onIgnored();
+        }
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    /**
+     * @return the key of the rate limit the client's requests count against: the webhook URL, or the Web API
+     * URL, a hash of the token and the channel if a bot token is set.
+     */
+    public String getRateLimitKey() {
+        return rateLimitKey;
+    }
+
+    private static String rateLimitKey(Configuration configuration, String endpoint, String channel) {
+        final String tokenKey = tokenKey(configuration, endpoint);
+        return channel == null || !configuration.stringIsSet(SlackPluginBase.CK_BOT_TOKEN) ? tokenKey : tokenKey + '#' + channel;
+    }
+
+    /**
+     * @return the endpoint and a hash of the bot token, or only the endpoint if no bot token is set.
+     */
+    private static String tokenKey(Configuration configuration, String endpoint) {
+        if (!configuration.stringIsSet(SlackPluginBase.CK_BOT_TOKEN)) {
+            return endpoint;
+        }
+        return endpoint + '#' + Hashing.sha256().hashString(configuration.getString(SlackPluginBase.CK_BOT_TOKEN), Charsets.UTF_8);
+    }
+
+    /**
+     * Parses the {@code Retry-After} header which Slack sends with HTTP 429 responses.
+     *
+     * @return the delay in milliseconds or -1 if the header is missing or unparseable.
+     */
+    private static long retryAfterMillis(SlackResponse response) {
+        final String retryAfter = response.getHeader("Retry-After");
+        if (retryAfter == null) {
+            return -1L;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            LOG.debug("Couldn't parse Retry-After header <{}>.", retryAfter);
+            return -1L;
+        }
+    }
+
+    private static URL parseUrl(String webhookUrl) {
+        try {
+            return new URL(webhookUrl);
+        } catch (MalformedURLException e) {
+            LOG.error("Invalid webhook URL <{}>.", webhookUrl, e);
+            return null;
+        }
+    }
+
+    /**
+     * The {@code chat.update} method lives next to {@code chat.postMessage}.
+     */
+    private static URL updateUrl(Configuration configuration, URL url) {
+        if (url == null || !configuration.stringIsSet(SlackPluginBase.CK_BOT_TOKEN)) {
+            return null;
+        }
+        try {
+            return new URL(url, "chat.update");
+        } catch (MalformedURLException e) {
+            LOG.error("Invalid Web API URL <{}>.", url, e);
+            return null;
         }
     }
 
+    private static Map<String, String> headers(Configuration configuration) {
+        if (!configuration.stringIsSet(SlackPluginBase.CK_BOT_TOKEN)) {
+            return Collections.emptyMap();
+        }
+        return ImmutableMap.of("Authorization", "Bearer " + configuration.getString(SlackPluginBase.CK_BOT_TOKEN));
+    }
+
+    /**
+     * @return the threads of the client's endpoint, or {@code null} if messages aren't threaded.
+     */
+    private static SlackThreads threads(Configuration configuration, String endpoint) {
+        final int ttl = configuration.getInt(SlackPluginBase.CK_THREAD_TTL, DEFAULT_THREAD_TTL);
+        if (endpoint == null || !configuration.stringIsSet(SlackPluginBase.CK_BOT_TOKEN) || ttl <= 0) {
+            return null;
+        }
+        return SlackThreads.forEndpoint(endpoint, configuration.getString(SlackPluginBase.CK_BOT_TOKEN), ttl);
+    }
+
+    private static CircuitBreaker circuitBreaker(Configuration configuration, String endpoint, URL url, boolean shared) {
+        final int failureRate = configuration.getInt(SlackPluginBase.CK_CIRCUIT_FAILURE_RATE, SlackCircuitBreakers.DEFAULT_FAILURE_RATE);
+        if (url == null || failureRate <= 0) {
+            return null;
+        }
+
+        final int coolDown = configuration.getInt(SlackPluginBase.CK_CIRCUIT_COOL_DOWN, SlackCircuitBreakers.DEFAULT_COOL_DOWN);
+        return shared
+                ? SlackCircuitBreakers.forWebhook(tokenKey(configuration, endpoint), url, failureRate, coolDown)
+                : SlackCircuitBreakers.create(url, failureRate, coolDown);
+    }
+
+    /**
+     * @return a gauge of the state of the webhook's circuit breaker (0 = closed, 1 = half-open, 2 = open), or
+     * {@code null} if the client has none. The gauge only refers to the circuit breaker, not to the client.
+     */
+    public Gauge<Integer> circuitStateGauge() {
+        if (circuitBreaker == null) {
+            return null;
+        }
+        final CircuitBreaker breaker = circuitBreaker;
+        return new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return breaker.getState().ordinal();
+            }
+        };
+    }
+
+    private static TransportSettings transportSettings(Configuration configuration) {
+        return new TransportSettings(
+                configuration.getInt(SlackPluginBase.CK_CONNECT_TIMEOUT, TransportSettings.DEFAULT_CONNECT_TIMEOUT),
+                configuration.getInt(SlackPluginBase.CK_READ_TIMEOUT, TransportSettings.DEFAULT_READ_TIMEOUT),
+                configuration.getInt(SlackPluginBase.CK_MAX_CONNECTIONS, TransportSettings.DEFAULT_MAX_CONNECTIONS),
+                configuration.getBoolean(SlackPluginBase.CK_COMPRESS_REQUESTS)
+        );
+    }
+
 
     public class SlackClientException extends Exception {
+        private final int statusCode;
+        private final long retryAfterMillis;
+        private final boolean circuitOpen;
 
         public SlackClientException(String msg) {
-            super(msg);
+            this(msg, -1, -1L);
         }
 
         public SlackClientException(String msg, Throwable cause) {
             super(msg, cause);
+            this.statusCode = -1;
+            this.retryAfterMillis = -1L;
+            this.circuitOpen = false;
+        }
+
+        public SlackClientException(String msg, int statusCode, long retryAfterMillis) {
+            super(msg);
+            this.statusCode = statusCode;
+            this.retryAfterMillis = retryAfterMillis;
+            this.circuitOpen = false;
+        }
+
+        public SlackClientException(String msg, boolean circuitOpen) {
+            super(msg);
+            this.statusCode = -1;
+            this.retryAfterMillis = -1L;
+            this.circuitOpen = circuitOpen;
+        }
+
+        /**
+         * @return the HTTP status code returned by Slack or -1 if no response has been received.
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        public boolean isRateLimited() {
+            return statusCode == 429;
+        }
+
+        /**
+         * @return {@code true} if the request failed in a way which might succeed when retried later.
+         */
+        public boolean isRetryable() {
+            return circuitOpen || statusCode >= 500 || (statusCode == -1 && getCause() instanceof IOException);
+        }
+
+        /**
+         * @return {@code true} if the message hasn't been sent because the webhook's circuit breaker is open.
+         */
+        public boolean isCircuitOpen() {
+            return circuitOpen;
         }
 
     }
@@ -4,14 +4,11 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
@@ -23,41 +20,130 @@ public class SlackMessage {
     private String customMessage;
 
     private final List<AttachmentField> attachments;
+    private final List<Attachment> messageAttachments;
+    private final byte[] payload;
+    private String threadKey;
+    private volatile String postedChannel;
+    private volatile String postedTs;
 
     public SlackMessage(String color, String message, String customMessage, String channel) {
+        this(color, message, customMessage, channel, null);
+    }
+
+    private SlackMessage(String color, String message, String customMessage, String channel, byte[] payload) {
+        this(color, message, customMessage, channel, payload, Lists.<AttachmentField>newArrayList(), Lists.<Attachment>newArrayList());
+    }
+
+    private SlackMessage(String color,
+                         String message,
+                         String customMessage,
+                         String channel,
+                         byte[] payload,
+                         List<AttachmentField> attachments,
+                         List<Attachment> messageAttachments) {
         this.color = color;
         this.message = message;
         this.channel = channel;
         this.customMessage = customMessage;
+        this.payload = payload;
 
-        this.attachments = Lists.newArrayList();
+        this.attachments = attachments;
+        this.messageAttachments = messageAttachments;
     }
 
-    public String getJsonString() {
-        // See https://api.slack.com/methods/chat.postMessage for valid parameters
-        final Map<String, Object> params = new HashMap<String, Object>(){{
-            put("channel", channel);
-            put("link_names", "1");
-            put("parse", "none");
-        }};
+    /**
+     * Creates a message from an already serialized payload, e. g. one read back from the spool.
+     */
+    public static SlackMessage fromPayload(byte[] payload) {
+        return new SlackMessage(null, null, null, null, payload);
+    }
 
-        if (isNullOrEmpty(customMessage)) {
-            params.put("text", message);
-            if (!attachments.isEmpty()) {
-                final Attachment attachment = new Attachment("Alert details", null, "Details:", color, attachments);
-                final List<Attachment> attachments = ImmutableList.of(attachment);
-                params.put("attachments", attachments);
-            }
-        } else {
-            params.put("text", customMessage);
+    /**
+     * Returns a copy of this message for each of the given channels. The payload is only serialized once, the
+     * copies just differ in the channel field.
+     */
+    public List<SlackMessage> forChannels(List<String> channels) {
+        if (channels.size() == 1) {
+            // Leave the serialization to the sender.
+            final SlackMessage copy = new SlackMessage(color, message, customMessage, channels.get(0), payload, attachments, messageAttachments);
+            copy.setThreadKey(threadKeyFor(channels.get(0)));
+            return Collections.singletonList(copy);
         }
 
-        params.put("username", "graylog");
+        final byte[] body = jsonBytes(null);
+        final List<SlackMessage> copies = Lists.newArrayListWithCapacity(channels.size());
+        for (String target : channels) {
+            final SlackMessage copy = fromPayload(isNullOrEmpty(target) ? body : SlackMessageSerializer.withChannel(body, target));
+            copy.setThreadKey(threadKeyFor(target));
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private String threadKeyFor(String channel) {
+        // Thread timestamps are only unique within a channel.
+        return threadKey == null ? null : threadKey + '|' + channel;
+    }
+
+    /**
+     * @return the key of the conversation this message belongs to, or {@code null}.
+     */
+    public String getThreadKey() {
+        return threadKey;
+    }
+
+    /**
+     * Sets the key of the conversation (e. g. stream or alert) this message belongs to. When sent through the
+     * Web API, messages with the same key are posted as replies to the thread of the first one.
+     */
+    public void setThreadKey(String threadKey) {
+        this.threadKey = threadKey;
+    }
 
-        try {
-            return new ObjectMapper().writeValueAsString(params);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Could not build payload JSON.", e);
+    /**
+     * @return the ID of the channel this message has been posted to through the Web API, or {@code null}.
+     */
+    public String getPostedChannel() {
+        return postedChannel;
+    }
+
+    /**
+     * @return the timestamp of this message in Slack if it has been posted through the Web API, or {@code null}.
+     */
+    public String getPostedTs() {
+        return postedTs;
+    }
+
+    /**
+     * Sets the location of this message in Slack. A message with a location is sent as an update
+     * ({@code chat.update}) of the message there instead of as a new message.
+     */
+    public void setPosted(String channel, String ts) {
+        this.postedChannel = channel;
+        this.postedTs = ts;
+    }
+
+    public String getJsonString() {
+        return new String(getJsonBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON payload of this message.
+     */
+    public byte[] getJsonBytes() {
+        return jsonBytes(channel);
+    }
+
+    private byte[] jsonBytes(String channel) {
+        if (payload != null) {
+            return channel == null ? payload : SlackMessageSerializer.withChannel(payload, channel);
+        }
+
+        final SlackMessageSerializer serializer = SlackMessageSerializer.forConfiguration(channel, color);
+        if (isNullOrEmpty(customMessage)) {
+            return serializer.serialize(message, attachments, messageAttachments);
+        } else {
+            return serializer.serialize(customMessage, Collections.<AttachmentField>emptyList(), Collections.<Attachment>emptyList());
         }
     }
 
@@ -65,6 +151,10 @@ public class SlackMessage {
         this.attachments.add(attachment);
     }
 
+    public void addAttachment(Attachment attachment) {
+        this.messageAttachments.add(attachment);
+    }
+
     @JsonInclude(JsonInclude.Include.NON_NULL)
     @JsonIgnoreProperties(ignoreUnknown = true)
     public static class Attachment {
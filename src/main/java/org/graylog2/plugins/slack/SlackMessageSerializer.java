@@ -0,0 +1,203 @@
+package org.graylog2.plugins.slack;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes the JSON payload of a {@link SlackMessage}.
+ * <p>
+ * The parts of the payload which only depend on the configuration (channel, username, link_names, parse
+ * and the attachment color) are serialized once per configuration and copied verbatim into every payload,
+ * only the message text and attachments are serialized per message. The payload is written into a
+ * per-thread buffer which is reused across messages.
+ *
+ * @see <a href="https://api.slack.com/methods/chat.postMessage">chat.postMessage</a> for valid parameters
+ */
+public class SlackMessageSerializer {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String USERNAME = "graylog";
+    private static final int MAX_CACHED_SERIALIZERS = 1000;
+
+    private static final LoadingCache<Key, SlackMessageSerializer> SERIALIZERS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_SERIALIZERS)
+            .build(new CacheLoader<Key, SlackMessageSerializer>() {
+                @Override
+                public SlackMessageSerializer load(Key key) {
+                    return new SlackMessageSerializer(key.channel, key.color);
+                }
+            });
+
+    private static final ThreadLocal<ByteArrayBuilder> BUFFER = new ThreadLocal<ByteArrayBuilder>() {
+        @Override
+        protected ByteArrayBuilder initialValue() {
+            return new ByteArrayBuilder(1024);
+        }
+    };
+
+    private final SerializableString skeleton;
+    private final SerializableString color;
+
+    public SlackMessageSerializer(String channel, String color) {
+        this.skeleton = new SerializedString(buildSkeleton(channel));
+        this.color = color == null ? null : new SerializedString(color);
+    }
+
+    /**
+     * Returns the shared serializer for the given channel and color.
+     */
+    public static SlackMessageSerializer forConfiguration(String channel, String color) {
+        return SERIALIZERS.getUnchecked(new Key(channel, color));
+    }
+
+    public byte[] serialize(String text, List<SlackMessage.AttachmentField> fields, List<SlackMessage.Attachment> attachments) {
+        final ByteArrayBuilder buffer = BUFFER.get();
+        buffer.reset();
+
+        try (final JsonGenerator generator = JSON_FACTORY.createGenerator(buffer, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            // The skeleton ends with a comma, so the generator (which hasn't seen any field yet) mustn't write one.
+            generator.writeRaw(skeleton);
+            generator.writeStringField("text", text);
+
+            if (!fields.isEmpty() || !attachments.isEmpty()) {
+                generator.writeArrayFieldStart("attachments");
+                if (!fields.isEmpty()) {
+                    writeAttachment(generator, "Alert details", null, "Details:", color, fields);
+                }
+                for (SlackMessage.Attachment attachment : attachments) {
+                    writeAttachment(generator, attachment.fallback, attachment.text, attachment.pretext,
+                            colorFor(attachment.color), attachment.fields);
+                }
+                generator.writeEndArray();
+            }
+
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new RuntimeException("Could not build payload JSON.", e);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Inserts the channel into a payload which has been serialized without one.
+     */
+    public static byte[] withChannel(byte[] payload, String channel) {
+        return withStringField(payload, "channel", channel);
+    }
+
+    /**
+     * Inserts the timestamp of the parent message into a payload, making it a thread reply.
+     */
+    public static byte[] withThreadTs(byte[] payload, String threadTs) {
+        return withStringField(payload, "thread_ts", threadTs);
+    }
+
+    /**
+     * Inserts the channel ID and timestamp of a posted message into a payload (serialized without channel),
+     * making it an update of that message.
+     */
+    public static byte[] forUpdate(byte[] payload, String channel, String ts) {
+        return withStringField(withStringField(payload, "ts", ts), "channel", channel);
+    }
+
+    private static byte[] withStringField(byte[] payload, String name, String value) {
+        final byte[] prefix = ("{\"" + name + "\":\"" + new String(JsonStringEncoder.getInstance().quoteAsString(value)) + "\",")
+                .getBytes(StandardCharsets.UTF_8);
+        final byte[] result = new byte[prefix.length + payload.length - 1];
+        System.arraycopy(prefix, 0, result, 0, prefix.length);
+        // Skip the opening brace of the payload, which is part of the prefix.
+        System.arraycopy(payload, 1, result, prefix.length, payload.length - 1);
+        return result;
+    }
+
+    private SerializableString colorFor(String attachmentColor) {
+        if (attachmentColor == null) {
+            return null;
+        }
+        return color != null && attachmentColor.equals(color.getValue()) ? color : new SerializedString(attachmentColor);
+    }
+
+    private static void writeAttachment(JsonGenerator generator,
+                                        String fallback,
+                                        String text,
+                                        String pretext,
+                                        SerializableString color,
+                                        List<SlackMessage.AttachmentField> fields) throws IOException {
+        generator.writeStartObject();
+        writeOptionalField(generator, "fallback", fallback);
+        writeOptionalField(generator, "text", text);
+        writeOptionalField(generator, "pretext", pretext);
+        if (color != null) {
+            generator.writeFieldName("color");
+            generator.writeString(color);
+        }
+        if (fields != null) {
+            generator.writeArrayFieldStart("fields");
+            for (SlackMessage.AttachmentField field : fields) {
+                generator.writeStartObject();
+                writeOptionalField(generator, "title", field.title);
+                writeOptionalField(generator, "value", field.value);
+                generator.writeBooleanField("short", field.isShort);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeOptionalField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private static String buildSkeleton(String channel) {
+        final StringBuilder sb = new StringBuilder();
+        if (channel != null) {
+            sb.append("\"channel\":\"").append(JsonStringEncoder.getInstance().quoteAsString(channel)).append("\",");
+        }
+        sb.append("\"link_names\":\"1\",\"parse\":\"none\",\"username\":\"").append(USERNAME).append("\",");
+        return sb.toString();
+    }
+
+    private static final class Key {
+        private final String channel;
+        private final String color;
+
+        private Key(String channel, String color) {
+            this.channel = channel;
+            this.color = color;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key that = (Key) o;
+            return Objects.equals(channel, that.channel) && Objects.equals(color, that.color);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(channel, color);
+        }
+    }
+}
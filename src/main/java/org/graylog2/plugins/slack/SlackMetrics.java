@@ -0,0 +1,136 @@
+package org.graylog2.plugins.slack;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Metrics of a Slack output or alarm callback, registered below a common name prefix
+ * (e. g. {@code org.graylog2.plugins.slack.output.SlackMessageOutput.<stream id>}).
+ */
+public class SlackMetrics {
+    private final MetricRegistry metricRegistry;
+    private final String prefix;
+    private final ConcurrentMap<String, Gauge<?>> gauges = new ConcurrentHashMap<>();
+
+    private final Timer serializeTime;
+    private final Timer httpTime;
+    private final Histogram payloadSize;
+    private final Meter sent;
+    private final Meter failed;
+    private final Meter rateLimited;
+    private final Meter dropped;
+    private final Meter spooled;
+    private final Meter replayed;
+    private final Meter shortCircuited;
+    private final Meter expired;
+
+    public SlackMetrics(MetricRegistry metricRegistry, String prefix) {
+        this.metricRegistry = metricRegistry;
+        this.prefix = prefix;
+
+        this.serializeTime = metricRegistry.timer(name("serializeTime"));
+        this.httpTime = metricRegistry.timer(name("httpTime"));
+        this.payloadSize = metricRegistry.histogram(name("payloadSize"));
+        this.sent = metricRegistry.meter(name("sent"));
+        this.failed = metricRegistry.meter(name("failed"));
+        this.rateLimited = metricRegistry.meter(name("rateLimited"));
+        this.dropped = metricRegistry.meter(name("dropped"));
+        this.spooled = metricRegistry.meter(name("spooled"));
+        this.replayed = metricRegistry.meter(name("replayed"));
+        this.shortCircuited = metricRegistry.meter(name("shortCircuited"));
+        this.expired = metricRegistry.meter(name("expired"));
+    }
+
+    /**
+     * Metrics which aren't reported anywhere, for code paths which don't have access to Graylog's metric registry.
+     */
+    public static SlackMetrics unregistered() {
+        return new SlackMetrics(new MetricRegistry(), SlackMetrics.class.getName());
+    }
+
+    public String name(String... names) {
+        return MetricRegistry.name(prefix, names);
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * Registers a gauge, replacing a previously registered gauge of the same name (e. g. of a restarted output).
+     */
+    public <T> void registerGauge(String name, Gauge<T> gauge) {
+        final String fullName = name(name);
+        metricRegistry.remove(fullName);
+        metricRegistry.register(fullName, gauge);
+        gauges.put(fullName, gauge);
+    }
+
+    /**
+     * Removes all gauges registered by this instance, as they would otherwise keep it from being garbage collected.
+     * Gauges which have since been replaced by another instance are left alone.
+     */
+    public void removeGauges() {
+        final Map<String, Gauge<?>> owned = new ConcurrentHashMap<>(gauges);
+        gauges.clear();
+        metricRegistry.removeMatching(new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return owned.get(name) == metric;
+            }
+        });
+    }
+
+    public Timer serializeTime() {
+        return serializeTime;
+    }
+
+    public Timer httpTime() {
+        return httpTime;
+    }
+
+    public Histogram payloadSize() {
+        return payloadSize;
+    }
+
+    public Meter sent() {
+        return sent;
+    }
+
+    public Meter failed() {
+        return failed;
+    }
+
+    public Meter rateLimited() {
+        return rateLimited;
+    }
+
+    public Meter dropped() {
+        return dropped;
+    }
+
+    public Meter spooled() {
+        return spooled;
+    }
+
+    public Meter replayed() {
+        return replayed;
+    }
+
+    public Meter shortCircuited() {
+        return shortCircuited;
+    }
+
+    public Meter expired() {
+        return expired;
+    }
+}
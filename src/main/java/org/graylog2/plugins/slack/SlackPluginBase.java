@@ -8,6 +8,9 @@ import org.graylog2.plugin.configuration.fields.ConfigurationField;
 import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.configuration.fields.TextField;
 import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugins.slack.circuit.SlackCircuitBreakers;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.transport.TransportSettings;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -16,18 +19,75 @@ import java.util.Arrays;
 public class SlackPluginBase {
     public static final String CK_WEBHOOK_URL = "webhook_url";
     public static final String CK_CHANNEL = "channel";
+    public static final String CK_BOT_TOKEN = "bot_token";
+    public static final String CK_API_URL = "api_url";
+    public static final String CK_THREAD_TTL = "thread_ttl";
     public static final String CK_COLOR = "color";
     public static final String CK_CUSTOM_MESSAGE = "custom_message";
+    public static final String CK_CONNECT_TIMEOUT = "connect_timeout";
+    public static final String CK_READ_TIMEOUT = "read_timeout";
+    public static final String CK_MAX_CONNECTIONS = "max_connections";
+    public static final String CK_COMPRESS_REQUESTS = "compress_requests";
+    public static final String CK_RATE_LIMIT = "rate_limit";
+    public static final String CK_RATE_BURST = "rate_burst";
+    public static final String CK_CLUSTER_RATE_LIMIT = "cluster_rate_limit";
+    public static final String CK_DELIVERY_DEADLINE = "delivery_deadline";
+    public static final String CK_CIRCUIT_FAILURE_RATE = "circuit_failure_rate";
+    public static final String CK_CIRCUIT_COOL_DOWN = "circuit_cool_down";
+    public static final String CK_QUEUE_CAPACITY = "queue_capacity";
+    public static final String CK_QUEUE_WORKERS = "queue_workers";
+    public static final String CK_QUEUE_MIN_WORKERS = "queue_min_workers";
+    public static final String CK_QUEUE_WEIGHT = "queue_weight";
+    public static final String CK_QUEUE_PRIORITY = "queue_priority";
+    public static final String CK_QUEUE_OVERFLOW_POLICY = "queue_overflow_policy";
+    public static final String CK_BATCH_SIZE = "batch_size";
+    public static final String CK_BATCH_INTERVAL = "batch_interval";
+    public static final String CK_BATCH_MODE = "batch_mode";
+    public static final String CK_DEDUP_WINDOW = "dedup_window";
+    public static final String CK_DEDUP_FIELDS = "dedup_fields";
+    public static final String CK_DEDUP_MAX_KEYS = "dedup_max_keys";
+    public static final String CK_SAMPLING_MODE = "sampling_mode";
+    public static final String CK_SAMPLING_VALUE = "sampling_value";
+    public static final String CK_SAMPLING_SUMMARY_INTERVAL = "sampling_summary_interval";
+    public static final String CK_DIGEST_INTERVAL = "digest_interval";
+    public static final String CK_DIGEST_TOP_K = "digest_top_k";
+    public static final String CK_SPOOL_DIRECTORY = "spool_directory";
+    public static final String CK_SPOOL_MAX_SIZE = "spool_max_size";
+    public static final String CK_SPOOL_MAX_AGE = "spool_max_age";
+    public static final String CK_ROUTING_RULES = "routing_rules";
+    public static final String CK_MAX_TEXT_SIZE = "max_text_size";
+    public static final String CK_OVERSIZE_POLICY = "oversize_policy";
+    public static final String CK_MAX_SPLIT_PARTS = "max_split_parts";
+    public static final String CK_BACKLOG_ITEMS = "backlog_items";
+    public static final String CK_BACKLOG_FIELD_LENGTH = "backlog_field_length";
+    public static final String CK_AGGREGATION_WINDOW = "aggregation_window";
 
     protected static ConfigurationRequest configuration() {
         final ConfigurationRequest configurationRequest = new ConfigurationRequest();
 
         configurationRequest.addField(new TextField(
-                CK_WEBHOOK_URL, "Webhook URL", "", "Slack \"Incoming Webhook\" URL",
-                ConfigurationField.Optional.NOT_OPTIONAL)
+                CK_WEBHOOK_URL, "Webhook URL", "", "Slack \"Incoming Webhook\" URL, or a comma-separated list of them. Not needed with a bot token",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_BOT_TOKEN, "Bot token", "",
+                "Token of a Slack bot user. If set, messages are posted through the Web API (chat.postMessage) instead of a webhook",
+                ConfigurationField.Optional.OPTIONAL,
+                TextField.Attribute.IS_PASSWORD)
+        );
+        configurationRequest.addField(new TextField(
+                CK_API_URL, "Web API URL", SlackClient.WEB_API_URL,
+                "URL of the chat.postMessage method, only used with a bot token",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_THREAD_TTL, "Thread duration (minutes)", SlackClient.DEFAULT_THREAD_TTL,
+                "With a bot token, follow-up messages within this many minutes of the first one are posted as thread replies (0 disables threading)",
+                ConfigurationField.Optional.OPTIONAL)
         );
         configurationRequest.addField(new TextField(
-                CK_CHANNEL, "Channel", "#channel", "Name of Slack #channel or @user for a direct message.",
+                CK_CHANNEL, "Channel", "#channel", "Name of Slack #channel or @user for a direct message, or a comma-separated list of them. "
+                        + "Several channels are paired up with several webhook URLs in order.",
                 ConfigurationField.Optional.NOT_OPTIONAL)
         );
         configurationRequest.addField(new TextField(
@@ -37,7 +97,53 @@ public class SlackPluginBase {
         );
         configurationRequest.addField(new TextField(
                 CK_CUSTOM_MESSAGE, "Custom message", null,
-                "Add a custom message for the alert (overrides all the others)",
+                "Add a custom message for the alert (overrides all the others). Supports placeholders like "
+                        + "${source}, ${level}, ${message}, ${stream.title}, ${alert.description} and ${backlog}",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CONNECT_TIMEOUT, "Connect timeout (ms)", TransportSettings.DEFAULT_CONNECT_TIMEOUT,
+                "Timeout in milliseconds for establishing a connection to Slack",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_READ_TIMEOUT, "Read timeout (ms)", TransportSettings.DEFAULT_READ_TIMEOUT,
+                "Timeout in milliseconds for waiting on a response from Slack",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_CONNECTIONS, "Max. connections per host", TransportSettings.DEFAULT_MAX_CONNECTIONS,
+                "Maximum number of concurrent keep-alive connections to the webhook host, shared by all Slack outputs and alarm callbacks",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new BooleanField(
+                CK_COMPRESS_REQUESTS, "Compress requests", false,
+                "Send large payloads gzip-compressed. Only enable this if the endpoint or a proxy in between accepts compressed requests")
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RATE_LIMIT, "Rate limit (messages/minute)", RateLimitedSender.DEFAULT_MESSAGES_PER_MINUTE,
+                "Maximum number of messages per minute sent to the webhook, shared by all Slack outputs and alarm callbacks using it",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RATE_BURST, "Rate limit burst", RateLimitedSender.DEFAULT_BURST,
+                "Number of messages which may be sent to the webhook at once before the rate limit applies",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_DELIVERY_DEADLINE, "Delivery deadline (s)", RateLimitedSender.DEFAULT_DELIVERY_DEADLINE,
+                "Time in seconds within which a message must be sent, including waiting for the rate limit and retries; "
+                        + "later messages are spooled or dropped (0 disables the deadline)",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CIRCUIT_FAILURE_RATE, "Circuit breaker failure rate (%)", SlackCircuitBreakers.DEFAULT_FAILURE_RATE,
+                "Share of failed requests after which no more requests are sent to the webhook for a while (0 disables the circuit breaker)",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CIRCUIT_COOL_DOWN, "Circuit breaker cool-down (s)", SlackCircuitBreakers.DEFAULT_COOL_DOWN,
+                "Time in seconds before a single request is sent to check if the webhook has recovered",
                 ConfigurationField.Optional.OPTIONAL)
         );
 
@@ -45,7 +151,7 @@ public class SlackPluginBase {
     }
 
     protected static void checkConfiguration(Configuration configuration) throws ConfigurationException {
-        if (!configuration.stringIsSet(CK_WEBHOOK_URL)) {
+        if (!configuration.stringIsSet(CK_WEBHOOK_URL) && !configuration.stringIsSet(CK_BOT_TOKEN)) {
             throw new ConfigurationException(CK_WEBHOOK_URL + " is mandatory and must not be empty.");
         }
 
@@ -56,6 +162,8 @@ public class SlackPluginBase {
         if (!configuration.stringIsSet(CK_COLOR)) {
             throw new ConfigurationException(CK_COLOR + " is mandatory and must not be empty.");
         }
+
+        SlackTarget.parse(configuration);
     }
 
     private static boolean isValidUriScheme(URI uri, String... validSchemes) {
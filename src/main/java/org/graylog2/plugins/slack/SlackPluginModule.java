@@ -1,12 +1,17 @@
 package org.graylog2.plugins.slack;
 
 import org.graylog2.plugins.slack.callback.SlackAlarmCallback;
+import org.graylog2.plugins.slack.cluster.MongoRateLimitStore;
+import org.graylog2.plugins.slack.cluster.RateLimitStore;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
 import org.graylog2.plugins.slack.output.SlackMessageOutput;
 import org.graylog2.plugin.PluginModule;
 
 public class SlackPluginModule extends PluginModule {
     @Override
     protected void configure() {
+        bind(SlackDeliveryService.class).asEagerSingleton();
+        bind(RateLimitStore.class).to(MongoRateLimitStore.class);
         addAlarmCallback(SlackAlarmCallback.class);
         addMessageOutput(SlackMessageOutput.class);
     }
@@ -0,0 +1,61 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationException;
+
+import java.util.List;
+
+/**
+ * A webhook and channel a message is posted to.
+ * <p>
+ * The webhook URL and channel settings may contain several comma-separated values. If both contain the same
+ * number of values, they are paired up in order; if one of them contains a single value, it's combined
+ * with every value of the other one. With a bot token, all channels are posted to through the Web API.
+ */
+public class SlackTarget {
+    private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final String webhookUrl;
+    private final String channel;
+
+    public SlackTarget(String webhookUrl, String channel) {
+        this.webhookUrl = webhookUrl;
+        this.channel = channel;
+    }
+
+    public static List<SlackTarget> parse(Configuration configuration) throws ConfigurationException {
+        final String endpoint = SlackClient.endpoint(configuration);
+        final List<String> webhookUrls = SPLITTER.splitToList(endpoint == null ? "" : endpoint);
+        final List<String> channels = SPLITTER.splitToList(configuration.getString(SlackPluginBase.CK_CHANNEL, ""));
+        if (webhookUrls.isEmpty()) {
+            throw new ConfigurationException(SlackPluginBase.CK_WEBHOOK_URL + " is mandatory and must not be empty.");
+        }
+        if (channels.isEmpty()) {
+            throw new ConfigurationException(SlackPluginBase.CK_CHANNEL + " is mandatory and must not be empty.");
+        }
+
+        final int count = Math.max(webhookUrls.size(), channels.size());
+        if ((webhookUrls.size() != 1 && webhookUrls.size() != count) || (channels.size() != 1 && channels.size() != count)) {
+            throw new ConfigurationException("Got " + webhookUrls.size() + " webhook URLs and " + channels.size()
+                    + " channels, expected the same number of both or a single one of either.");
+        }
+
+        final ImmutableList.Builder<SlackTarget> targets = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            targets.add(new SlackTarget(
+                    webhookUrls.get(webhookUrls.size() == 1 ? 0 : i),
+                    channels.get(channels.size() == 1 ? 0 : i)));
+        }
+        return targets.build();
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+}
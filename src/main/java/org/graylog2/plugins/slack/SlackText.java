@@ -0,0 +1,129 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps message texts within Slack's size limits.
+ * <p>
+ * Sizes are UTF-8 byte lengths, which are counted while walking the text up to the limit, so a huge
+ * log message is never encoded (or even scanned) in full just to find out that it's too large.
+ * Texts are only cut between code points.
+ */
+public final class SlackText {
+    public static final String ELLIPSIS = "…";
+    private static final int ELLIPSIS_BYTES = 3;
+
+    // Slack truncates texts longer than 40,000 characters; in bytes, this is a safe upper bound.
+    public static final int MAX_TEXT_BYTES = 40000;
+    public static final int DEFAULT_MAX_TEXT_BYTES = 16000;
+
+    public enum OversizePolicy {
+        TRUNCATE, SPLIT
+    }
+
+    private SlackText() {
+    }
+
+    /**
+     * Truncates a text to at most {@code maxBytes} UTF-8 bytes, including the appended ellipsis.
+     */
+    public static String truncate(String text, int maxBytes) {
+        if (text == null || text.length() <= maxBytes / 3) {
+            // Every char takes at most 3 bytes, surrogate pairs 4 bytes for 2 chars.
+            return text;
+        }
+        if (maxBytes < ELLIPSIS_BYTES) {
+            return "";
+        }
+
+        final int length = text.length();
+        int bytes = 0;
+        int cut = -1;
+        for (int i = 0; i < length; ) {
+            final int width = isSurrogatePair(text, i) ? 2 : 1;
+            final int size = width == 2 ? 4 : utf8Length(text.charAt(i));
+            if (cut < 0 && bytes + size > maxBytes - ELLIPSIS_BYTES) {
+                cut = i;
+            }
+            bytes += size;
+            if (bytes > maxBytes) {
+                return text.substring(0, cut) + ELLIPSIS;
+            }
+            i += width;
+        }
+        return text;
+    }
+
+    /**
+     * Splits a text into parts of at most {@code maxBytes} UTF-8 bytes, preferably at line breaks.
+     */
+    public static List<String> split(String text, int maxBytes) {
+        if (text == null || text.length() <= maxBytes / 3) {
+            return Collections.singletonList(text);
+        }
+
+        final ImmutableList.Builder<String> parts = ImmutableList.builder();
+        int start = 0;
+        while (start < text.length()) {
+            int end = fit(text, start, Math.max(4, maxBytes));
+            if (end < text.length()) {
+                // Break at the last line break, unless it would make the part much shorter.
+                final int lineBreak = text.lastIndexOf('\n', end - 1);
+                if (lineBreak > start + (end - start) / 2) {
+                    end = lineBreak + 1;
+                }
+            }
+            parts.add(text.substring(start, end));
+            start = end;
+        }
+        return parts.build();
+    }
+
+    /**
+     * @return the end of the longest part of the text starting at {@code start} which fits into {@code maxBytes}.
+     */
+    static int fit(String text, int start, int maxBytes) {
+        final int length = text.length();
+        int bytes = 0;
+        int i = start;
+        while (i < length) {
+            final int width = isSurrogatePair(text, i) ? 2 : 1;
+            bytes += width == 2 ? 4 : utf8Length(text.charAt(i));
+            if (bytes > maxBytes) {
+                break;
+            }
+            i += width;
+        }
+        return i;
+    }
+
+    public static int utf8Length(String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (isSurrogatePair(text, i)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += utf8Length(text.charAt(i));
+            }
+        }
+        return bytes;
+    }
+
+    private static boolean isSurrogatePair(String text, int i) {
+        return Character.isHighSurrogate(text.charAt(i)) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1));
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        }
+        // Includes unpaired surrogates, which are encoded as a replacement character.
+        return 3;
+    }
+}
@@ -0,0 +1,110 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps of the first message of each thread, which replies refer to. Threads are only kept for a
+ * while, so a conversation which comes up again later starts a new thread.
+ * <p>
+ * The threads are shared by all clients posting through the same Web API endpoint with the same token, so
+ * the outputs and alarm callbacks of a stream reply to the same thread. Only one client at a time posts a
+ * message which starts a thread; messages posted before its timestamp has arrived aren't threaded.
+ */
+final class SlackThreads {
+    private static final int MAX_THREADS = 10000;
+    private static final ConcurrentMap<String, SlackThreads> REGISTRY = new ConcurrentHashMap<>();
+
+    private final Cache<String, Conversation> conversations;
+
+    private SlackThreads(int ttlMinutes) {
+        this.conversations = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .maximumSize(MAX_THREADS)
+                .build();
+    }
+
+    /**
+     * Returns the threads of the given endpoint and token. Clients with a different TTL get threads of their own.
+     */
+    static SlackThreads forEndpoint(String endpoint, String token, int ttlMinutes) {
+        final String key = endpoint + '\0' + Hashing.sha256().hashString(token, Charsets.UTF_8) + '\0' + ttlMinutes;
+        SlackThreads threads = REGISTRY.get(key);
+        if (threads == null) {
+            final SlackThreads newThreads = new SlackThreads(ttlMinutes);
+            threads = REGISTRY.putIfAbsent(key, newThreads);
+            if (threads == null) {
+                threads = newThreads;
+            }
+        }
+
+        return threads;
+    }
+
+    /**
+     * @return the conversation of the given thread key.
+     */
+    Conversation conversation(String threadKey) {
+        Conversation conversation = conversations.getIfPresent(threadKey);
+        if (conversation == null) {
+            final Conversation newConversation = new Conversation();
+            conversation = conversations.asMap().putIfAbsent(threadKey, newConversation);
+            if (conversation == null) {
+                conversation = newConversation;
+            }
+        }
+        return conversation;
+    }
+
+    /**
+     * Records the timestamp of the first message of a conversation. The thread is kept from now on.
+     */
+    void started(String threadKey, Conversation conversation, String ts) {
+        synchronized (conversation) {
+            conversation.ts = ts;
+            conversation.starting = false;
+        }
+        conversations.put(threadKey, conversation);
+    }
+
+    static final class Conversation {
+        private volatile String ts;
+        // Guarded by this, whether a client is posting the message which starts the thread.
+        private boolean starting;
+
+        /**
+         * @return the timestamp of the first message, or {@code null} if it hasn't been posted yet.
+         */
+        String getTs() {
+            return ts;
+        }
+
+        /**
+         * Claims posting the message which starts the thread. The claim ends once the thread has been
+         * {@link SlackThreads#started(String, Conversation, String) started} or has {@link #startFailed() failed}.
+         *
+         * @return {@code true} if the caller starts the thread, {@code false} if it has been started or another
+         * client is starting it.
+         */
+        synchronized boolean tryStart() {
+            if (ts != null || starting) {
+                return false;
+            }
+            starting = true;
+            return true;
+        }
+
+        /**
+         * Gives up the claim of a client which couldn't start the thread, so the next message does.
+         */
+        synchronized void startFailed() {
+            starting = false;
+        }
+    }
+}
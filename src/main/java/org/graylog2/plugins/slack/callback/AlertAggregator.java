@@ -0,0 +1,251 @@
+package org.graylog2.plugins.slack.callback;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates repeated firings of an alert within a time window.
+ * <p>
+ * The first firing of an alert (e. g. keyed by stream, condition and targets) opens a window, further firings within the
+ * window only increase its counter. When the window is over, or the alert is evicted because too many
+ * alerts are tracked, the {@link WindowListener} of the aggregate is notified once, so it can report
+ * firings which haven't been reported yet. Listeners are notified on the aggregator's executor, never on the
+ * thread which fires an alert.
+ */
+public class AlertAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(AlertAggregator.class);
+    private static final long EXPIRY_INTERVAL_SECONDS = 5L;
+
+    private final Ticker ticker;
+    private final Executor executor;
+    private final ConcurrentMap<String, Aggregate> aggregates;
+
+    /**
+     * Creates an aggregator which closes windows from a background thread.
+     */
+    public AlertAggregator(int maxAlerts) {
+        this(maxAlerts, Ticker.systemTicker(), Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("slack-alert-aggregator-%d")
+                .setDaemon(true)
+                .build()));
+        ((ScheduledExecutorService) executor).scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expire();
+                } catch (Exception e) {
+                    LOG.warn("Could not close alert aggregation windows.", e);
+                }
+            }
+        }, EXPIRY_INTERVAL_SECONDS, EXPIRY_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates an aggregator which only closes windows when {@link #expire()} is called, and notifies listeners
+     * on the calling thread.
+     */
+    public AlertAggregator(int maxAlerts, Ticker ticker) {
+        this(maxAlerts, ticker, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Creates an aggregator which only closes windows when {@link #expire()} is called, and notifies listeners
+     * on the given executor.
+     */
+    AlertAggregator(int maxAlerts, Ticker ticker, Executor executor) {
+        this.ticker = ticker;
+        this.executor = executor;
+        final Cache<String, Aggregate> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxAlerts)
+                .removalListener(new RemovalListener<String, Aggregate>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, Aggregate> notification) {
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            close(notification.getValue());
+                        }
+                    }
+                })
+                .build();
+        this.aggregates = cache.asMap();
+    }
+
+    /**
+     * Records a firing of the given alert. If the window of the alert is over, it's closed and a new one is
+     * opened.
+     *
+     * @param windowNanos the length of a new window.
+     * @param listener    the listener notified when a new window is closed.
+     */
+    public Firing fire(String key, long windowNanos, WindowListener listener) {
+        final long now = ticker.read();
+        while (true) {
+            final Aggregate existing = aggregates.get(key);
+            if (existing == null) {
+                final Aggregate created = new Aggregate(now, windowNanos, listener);
+                if (aggregates.putIfAbsent(key, created) == null) {
+                    return new Firing(created, 1);
+                }
+            } else {
+                final int count = existing.fire(now);
+                if (count > 0) {
+                    return new Firing(existing, count);
+                }
+                if (aggregates.remove(key, existing)) {
+                    close(existing);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all windows which are over.
+     */
+    public void expire() {
+        final long now = ticker.read();
+        for (Map.Entry<String, Aggregate> entry : aggregates.entrySet()) {
+            final Aggregate aggregate = entry.getValue();
+            if (aggregate.isOver(now) && aggregates.remove(entry.getKey(), aggregate)) {
+                close(aggregate);
+            }
+        }
+    }
+
+    public int size() {
+        return aggregates.size();
+    }
+
+    private void close(final Aggregate aggregate) {
+        if (aggregate.close()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        aggregate.listener.onWindowClosed(aggregate);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Could not report aggregated alert.", e);
+                    }
+                }
+            });
+        }
+    }
+
+    public interface WindowListener {
+        void onWindowClosed(Aggregate aggregate);
+    }
+
+    /**
+     * A single firing of an alert and the aggregate it has been counted in.
+     */
+    public static class Firing {
+        private final Aggregate aggregate;
+        private final int count;
+
+        private Firing(Aggregate aggregate, int count) {
+            this.aggregate = aggregate;
+            this.count = count;
+        }
+
+        public Aggregate getAggregate() {
+            return aggregate;
+        }
+
+        /**
+         * @return the number of firings in the window including this one.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return {@code true} if this firing opened the window.
+         */
+        public boolean isFirst() {
+            return count == 1;
+        }
+    }
+
+    public static class Aggregate {
+        private final long start;
+        private final long windowNanos;
+        private final WindowListener listener;
+        private int count = 1;
+        private int reported = 0;
+        private boolean closed = false;
+        private volatile List<SlackMessage> posted = Collections.emptyList();
+
+        private Aggregate(long start, long windowNanos, WindowListener listener) {
+            this.start = start;
+            this.windowNanos = windowNanos;
+            this.listener = listener;
+        }
+
+        private synchronized int fire(long now) {
+            if (closed || isOver(now)) {
+                return 0;
+            }
+            return ++count;
+        }
+
+        private synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+
+        private boolean isOver(long now) {
+            return now - start >= windowNanos;
+        }
+
+        public synchronized int getCount() {
+            return count;
+        }
+
+        /**
+         * Marks the firings up to the given count as reported.
+         *
+         * @return {@code true} if they hadn't been reported yet.
+         */
+        public synchronized boolean report(int count) {
+            if (count <= reported) {
+                return false;
+            }
+            reported = count;
+            return true;
+        }
+
+        public long getWindowNanos() {
+            return windowNanos;
+        }
+
+        /**
+         * @return the messages posted for the first firing, which repeated firings update.
+         */
+        public List<SlackMessage> getPosted() {
+            return posted;
+        }
+
+        public void setPosted(List<SlackMessage> posted) {
+            this.posted = posted;
+        }
+    }
+}
@@ -1,6 +1,14 @@
 package org.graylog2.plugins.slack.callback;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.MessageSummary;
 import org.graylog2.plugin.alarms.AlertCondition;
@@ -10,76 +18,361 @@ import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugins.slack.SlackClient;
 import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackMetrics;
 import org.graylog2.plugins.slack.SlackPluginBase;
+import org.graylog2.plugins.slack.SlackTarget;
+import org.graylog2.plugins.slack.SlackText;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.template.MessageTemplate;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-
-import static com.google.common.base.Strings.isNullOrEmpty;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class SlackAlarmCallback extends SlackPluginBase implements AlarmCallback {
-    private static final String DELIMITER = " | ";
+    private static final Logger LOG = LoggerFactory.getLogger(SlackAlarmCallback.class);
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(DateTimeZone.UTC);
+    private static final int DEFAULT_BACKLOG_ITEMS = 10;
+    private static final int DEFAULT_BACKLOG_FIELD_LENGTH = 500;
+    // Slack doesn't render more than 100 attachments per message.
+    private static final int MAX_BACKLOG_ITEMS = 100;
+    private static final int DEFAULT_AGGREGATION_WINDOW = 0;
+    private static final int MAX_AGGREGATED_ALERTS = 10000;
+
+    private final MetricRegistry metricRegistry;
+    private final SlackDeliveryService deliveryService;
+    private final AlertAggregator aggregator;
     private Configuration configuration;
+    private MessageTemplate customMessage;
+    private SlackMetrics metrics;
+    private List<RateLimitedSender> senders;
+    private List<String> channels;
+    private long deadlineNanos;
+    private int maxBacklogItems;
+    private int maxFieldLength;
+    private long aggregationWindowNanos;
+    // Identifies the targets of the callback, so callbacks of the same condition don't share aggregates.
+    private String targetsKey;
+
+    public SlackAlarmCallback() {
+        this(new MetricRegistry(), SlackDeliveryService.defaultInstance());
+    }
+
+    @Inject
+    public SlackAlarmCallback(MetricRegistry metricRegistry, SlackDeliveryService deliveryService) {
+        this(metricRegistry, deliveryService, null);
+    }
+
+    /**
+     * @param aggregator the aggregator of repeated alerts, {@code null} for the node-wide one.
+     */
+    SlackAlarmCallback(MetricRegistry metricRegistry, SlackDeliveryService deliveryService, AlertAggregator aggregator) {
+        this.metricRegistry = metricRegistry;
+        this.deliveryService = deliveryService;
+        this.aggregator = aggregator;
+    }
 
     @Override
     public void initialize(final Configuration config) throws AlarmCallbackConfigurationException {
         this.configuration = config;
 
+        final List<SlackTarget> targets;
         try {
             checkConfiguration(config);
+            targets = SlackTarget.parse(config);
         } catch (ConfigurationException e) {
             throw new AlarmCallbackConfigurationException("Configuration error. " + e.getMessage());
         }
+
+        this.customMessage = config.stringIsSet(CK_CUSTOM_MESSAGE) ? MessageTemplate.compile(config.getString(CK_CUSTOM_MESSAGE)) : null;
+        this.maxBacklogItems = Math.min(MAX_BACKLOG_ITEMS, Math.max(0, config.getInt(CK_BACKLOG_ITEMS, DEFAULT_BACKLOG_ITEMS)));
+        this.maxFieldLength = Math.max(1, config.getInt(CK_BACKLOG_FIELD_LENGTH, DEFAULT_BACKLOG_FIELD_LENGTH));
+
+        if (metrics != null) {
+            // Initialized again, the gauges of the previous targets go away.
+            metrics.removeGauges();
+        }
+        // The stream isn't known before the first call, so client metrics are shared by all Slack alarm callbacks.
+        this.metrics = new SlackMetrics(metricRegistry, SlackAlarmCallback.class.getName());
+        final ImmutableList.Builder<RateLimitedSender> senders = ImmutableList.builder();
+        final ImmutableList.Builder<String> channels = ImmutableList.builder();
+        final Hasher targetsHasher = Hashing.murmur3_32().newHasher();
+        for (SlackTarget target : targets) {
+            final SlackClient client = new SlackClient(config, target, metrics);
+            final Gauge<Integer> circuitState = client.circuitStateGauge();
+            if (circuitState != null) {
+                // Registered under the same name by every callback of the target, which replaces the previous gauge.
+                metrics.registerGauge(circuitStateGaugeName(target), circuitState);
+            }
+            senders.add(RateLimitedSender.create(client, config));
+            channels.add(target.getChannel());
+            targetsHasher.putString(target.getWebhookUrl(), Charsets.UTF_8)
+                    .putByte((byte) 0)
+                    .putString(target.getChannel(), Charsets.UTF_8)
+                    .putByte((byte) 0);
+        }
+        this.senders = senders.build();
+        this.channels = channels.build();
+        this.targetsKey = targetsHasher.hash().toString();
+        this.deadlineNanos = TimeUnit.SECONDS.toNanos(config.getInt(CK_DELIVERY_DEADLINE, RateLimitedSender.DEFAULT_DELIVERY_DEADLINE));
+        this.aggregationWindowNanos = TimeUnit.MINUTES.toNanos(Math.max(0, config.getInt(CK_AGGREGATION_WINDOW, DEFAULT_AGGREGATION_WINDOW)));
+    }
+
+    /**
+     * The webhook URL contains its secret, so the gauge is named after its host and a hash of it.
+     */
+    private static String circuitStateGaugeName(SlackTarget target) {
+        final String webhookUrl = target.getWebhookUrl();
+        String host;
+        try {
+            host = new URL(webhookUrl).getHost();
+        } catch (MalformedURLException e) {
+            host = "invalid";
+        }
+        return MetricRegistry.name("circuitState", host,
+                Hashing.murmur3_32().hashString(webhookUrl, Charsets.UTF_8).toString(), target.getChannel());
     }
 
     @Override
     public void call(Stream stream, AlertCondition.CheckResult result) throws AlarmCallbackException {
-        final SlackClient client = new SlackClient(configuration);
+        final Timer.Context callTime = metricRegistry.timer(MetricRegistry.name(SlackAlarmCallback.class, stream.getId(), "callTime")).time();
 
-        SlackMessage message = new SlackMessage(
-                configuration.getString(CK_COLOR),
-                buildMessage(stream, result),
-                configuration.getString(CK_CUSTOM_MESSAGE),
-                configuration.getString(CK_CHANNEL)
-        );
+        // Alerts of the same condition are threaded when sent through the Web API.
+        final AlertCondition condition = result.getTriggeredCondition();
+        final String alertKey = condition == null ? stream.getId() : stream.getId() + '/' + condition.getId();
 
-        // Add attachments if requested.
-        final List<Message> backlogItems = getAlarmBacklog(result);
+        final AlertAggregator.Firing firing = aggregationWindowNanos > 0L
+                ? aggregator().fire(alertKey + '/' + targetsKey, aggregationWindowNanos, windowListener(stream, result))
+                : null;
 
+        final long deadline = deadlineNanos > 0L ? System.nanoTime() + deadlineNanos : Long.MAX_VALUE;
         try {
-            client.send(message);
+            if (firing != null && !firing.isFirst()) {
+                // Repeated firings update the posted message, or are summarized when the window is over.
+                final List<SlackMessage> posted = firing.getAggregate().getPosted();
+                if (isUpdatable(posted) && firing.getAggregate().report(firing.getCount())) {
+                    sendAll(updates(createMessage(stream, result, repeatNote(firing.getCount())), posted), deadline);
+                }
+                return;
+            }
+
+            final SlackMessage message = createMessage(stream, result, null);
+            message.setThreadKey(alertKey);
+            final List<SlackMessage> copies = message.forChannels(channels);
+            sendAll(copies, deadline);
+            if (firing != null) {
+                firing.getAggregate().setPosted(copies);
+            }
         } catch (SlackClient.SlackClientException e) {
             throw new RuntimeException("Could not send message to Slack.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AlarmCallbackException("Interrupted while sending message to Slack.", e);
+        } finally {
+            callTime.stop();
         }
     }
 
-    protected List<Message> getAlarmBacklog(AlertCondition.CheckResult result) {
-        final AlertCondition alertCondition = result.getTriggeredCondition();
-        final List<MessageSummary> matchingMessages = result.getMatchingMessages();
+    SlackMessage createMessage(Stream stream, AlertCondition.CheckResult result, String note) {
+        final String text = SlackText.truncate(buildMessage(stream, result), SlackText.DEFAULT_MAX_TEXT_BYTES);
+        final String custom = customMessage == null
+                ? null
+                : SlackText.truncate(customMessage.render(stream, result, backlogSize(result)), SlackText.DEFAULT_MAX_TEXT_BYTES);
+        final SlackMessage message = new SlackMessage(
+                configuration.getString(CK_COLOR),
+                note == null || custom != null ? text : text + "\n" + note,
+                note == null || custom == null ? custom : custom + "\n" + note,
+                null
+        );
 
-        final int effectiveBacklogSize = Math.min(alertCondition.getBacklog(), matchingMessages.size());
+        if (customMessage == null) {
+            addBacklog(message, result);
+        }
+        return message;
+    }
 
-        if (effectiveBacklogSize == 0) {
-            return Collections.emptyList();
+    private String repeatNote(int count) {
+        return "_Fired " + count + " times in " + TimeUnit.NANOSECONDS.toMinutes(aggregationWindowNanos) + " minute(s)_";
+    }
+
+    /**
+     * @return {@code true} if one of the messages has been posted through the Web API, so it can be updated.
+     */
+    private static boolean isUpdatable(List<SlackMessage> posted) {
+        for (SlackMessage message : posted) {
+            if (message.getPostedTs() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return an update of each posted message, {@code null} for those which haven't been posted.
+     */
+    private static List<SlackMessage> updates(SlackMessage message, List<SlackMessage> posted) {
+        final List<SlackMessage> updates = Lists.newArrayList(message.forChannels(Collections.<String>nCopies(posted.size(), null)));
+        for (int i = 0; i < posted.size(); i++) {
+            final SlackMessage original = posted.get(i);
+            if (original.getPostedTs() == null) {
+                updates.set(i, null);
+            } else {
+                updates.get(i).setPosted(original.getPostedChannel(), original.getPostedTs());
+            }
         }
+        return updates;
+    }
 
-        final List<MessageSummary> backlogSummaries = matchingMessages.subList(0, effectiveBacklogSize);
+    /**
+     * Reports the firings which haven't been reported when an aggregation window is over: through the Web API
+     * the posted message is updated, otherwise a summary is posted.
+     */
+    private AlertAggregator.WindowListener windowListener(final Stream stream, final AlertCondition.CheckResult result) {
+        return new AlertAggregator.WindowListener() {
+            @Override
+            public void onWindowClosed(AlertAggregator.Aggregate aggregate) {
+                final int count = aggregate.getCount();
+                if (count <= 1 || !aggregate.report(count)) {
+                    return;
+                }
 
-        final List<Message> backlog = Lists.newArrayListWithCapacity(effectiveBacklogSize);
+                final long deadline = deadlineNanos > 0L ? System.nanoTime() + deadlineNanos : Long.MAX_VALUE;
+                final List<SlackMessage> posted = aggregate.getPosted();
+                try {
+                    if (isUpdatable(posted)) {
+                        sendAll(updates(createMessage(stream, result, repeatNote(count)), posted), deadline);
+                    } else {
+                        final String text = "*Alert for Graylog stream _" + stream.getTitle() + "_ fired " + (count - 1)
+                                + " more time(s) in the last " + TimeUnit.NANOSECONDS.toMinutes(aggregate.getWindowNanos()) + " minute(s).*";
+                        sendAll(new SlackMessage(configuration.getString(CK_COLOR), text, null, null).forChannels(channels), deadline);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOG.warn("Could not send summary of aggregated alert to Slack.", e);
+                }
+            }
+        };
+    }
 
-        for (MessageSummary messageSummary : backlogSummaries) {
+    /**
+     * Sends the copies of a message to their targets through the delivery service and waits for all of them,
+     * so one failing target doesn't keep the message from the others. Targets without a copy ({@code null})
+     * are skipped.
+     */
+    private void sendAll(List<SlackMessage> copies, final long deadline)
+            throws SlackClient.SlackClientException, InterruptedException, AlarmCallbackException {
+        final List<Future<Boolean>> futures = Lists.newArrayListWithCapacity(copies.size());
+        for (int i = 0; i < copies.size(); i++) {
+            final SlackMessage copy = copies.get(i);
+            if (copy != null) {
+                // Alerts go before the messages of outputs sending to the same webhook.
+                futures.add(deliveryService.send(senders.get(i), copy, SlackDeliveryService.Priority.HIGH, deadline));
+            }
+        }
+
+        Throwable failure = null;
+        boolean expired = false;
+        try {
+            for (Future<Boolean> future : futures) {
+                try {
+                    expired |= !future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Boolean> future : futures) {
+                future.cancel(false);
+            }
+            throw e;
+        }
+
+        if (failure instanceof SlackClient.SlackClientException) {
+            throw (SlackClient.SlackClientException) failure;
+        } else if (failure != null) {
+            throw new RuntimeException("Could not send message to Slack.", failure);
+        } else if (expired) {
+            metrics.expired().mark();
+            throw new AlarmCallbackException("Could not send message to Slack within "
+                    + TimeUnit.NANOSECONDS.toSeconds(deadlineNanos) + " seconds.");
+        }
+    }
+
+    private static int backlogSize(AlertCondition.CheckResult result) {
+        final AlertCondition condition = result.getTriggeredCondition();
+        if (condition == null) {
+            return 0;
+        }
+        final Integer backlog = condition.getBacklog();
+        return backlog == null ? 0 : backlog;
+    }
+
+    /**
+     * @deprecated the backlog is attached from the message summaries, without copying the raw messages.
+     */
+    @Deprecated
+    protected List<Message> getAlarmBacklog(AlertCondition.CheckResult result) {
+        final List<MessageSummary> matchingMessages = result.getMatchingMessages();
+        if (matchingMessages == null) {
+            return Collections.emptyList();
+        }
+
+        final int effectiveBacklogSize = Math.min(backlogSize(result), matchingMessages.size());
+        final List<Message> backlog = Lists.newArrayListWithCapacity(effectiveBacklogSize);
+        for (MessageSummary messageSummary : matchingMessages.subList(0, effectiveBacklogSize)) {
             backlog.add(messageSummary.getRawMessage());
         }
 
         return backlog;
     }
 
+    /**
+     * Adds the backlog of the alert as attachments, at most {@link #maxBacklogItems} of them with every field
+     * truncated to {@link #maxFieldLength} characters. Only the attached summaries are looked at.
+     */
+    private void addBacklog(SlackMessage message, AlertCondition.CheckResult result) {
+        final List<MessageSummary> matchingMessages = result.getMatchingMessages();
+        if (matchingMessages == null) {
+            return;
+        }
+
+        final int items = Math.min(Math.min(backlogSize(result), maxBacklogItems), matchingMessages.size());
+        final String color = configuration.getString(CK_COLOR);
+        for (int i = 0; i < items; i++) {
+            final MessageSummary summary = matchingMessages.get(i);
+            final String text = truncate(summary.getMessage());
+            final List<SlackMessage.AttachmentField> fields = ImmutableList.of(
+                    new SlackMessage.AttachmentField("Source", truncate(summary.getSource()), true),
+                    new SlackMessage.AttachmentField("Timestamp",
+                            summary.getTimestamp() == null ? null : TIMESTAMP_FORMAT.print(summary.getTimestamp()), true)
+            );
+            message.addAttachment(new SlackMessage.Attachment(text, text, null, color, fields));
+        }
+    }
+
+    private String truncate(String value) {
+        return value == null || value.length() <= maxFieldLength ? value : value.substring(0, maxFieldLength) + "…";
+    }
+
     public String buildMessage(Stream stream, AlertCondition.CheckResult result) {
         String titleLink = "_" + stream.getTitle() + "_";
 
@@ -98,11 +391,40 @@ public class SlackAlarmCallback extends SlackPluginBase implements AlarmCallback
 
     @Override
     public ConfigurationRequest getRequestedConfiguration() {
-        return configuration();
+        final ConfigurationRequest configurationRequest = configuration();
+
+        configurationRequest.addField(new NumberField(
+                CK_BACKLOG_ITEMS, "Backlog items", DEFAULT_BACKLOG_ITEMS,
+                "Maximum number of backlog messages attached to the alert (at most " + MAX_BACKLOG_ITEMS + ")",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_BACKLOG_FIELD_LENGTH, "Backlog field length", DEFAULT_BACKLOG_FIELD_LENGTH,
+                "Maximum number of characters of a backlog message or source before it's truncated",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+
+        configurationRequest.addField(new NumberField(
+                CK_AGGREGATION_WINDOW, "Aggregation window (minutes)", DEFAULT_AGGREGATION_WINDOW,
+                "Repeated alerts of a condition within this many minutes of the first one update its message "
+                        + "(with a bot token) or are summarized at the end of the window instead of posted (0 disables aggregation)",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+
+        return configurationRequest;
     }
 
     @Override
     public String getName() {
         return "Slack alarm callback";
     }
+
+    private AlertAggregator aggregator() {
+        return aggregator == null ? Aggregation.AGGREGATOR : aggregator;
+    }
+
+    // Holds the node-wide aggregator, so its thread is only started once aggregation is used.
+    private static class Aggregation {
+        private static final AlertAggregator AGGREGATOR = new AlertAggregator(MAX_AGGREGATED_ALERTS);
+    }
 }
@@ -0,0 +1,148 @@
+package org.graylog2.plugins.slack.circuit;
+
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker which stops requests to a webhook that keeps failing.
+ * <p>
+ * While <em>closed</em>, the outcomes of the last {@code windowSize} requests are recorded. Once the window
+ * is full and the share of failures reaches the threshold, the breaker <em>opens</em> and rejects all
+ * requests for the cool-down period. Afterwards it's <em>half-open</em> and lets a single probe request
+ * through: if the probe succeeds, the breaker closes again, otherwise it opens for another cool-down period.
+ */
+public class CircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final long coolDownNanos;
+    private final Ticker ticker;
+    private final boolean[] outcomes;
+
+    private State state = State.CLOSED;
+    private int calls;
+    private int next;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    public CircuitBreaker(String name, int failureRateThreshold, int windowSize, long coolDown, TimeUnit unit) {
+        this(name, failureRateThreshold, windowSize, coolDown, unit, Ticker.systemTicker());
+    }
+
+    public CircuitBreaker(String name, int failureRateThreshold, int windowSize, long coolDown, TimeUnit unit, Ticker ticker) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.coolDownNanos = unit.toNanos(coolDown);
+        this.ticker = ticker;
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+    }
+
+    /**
+     * @return {@code true} if a request may be sent. Every permitted request must be followed by a call to
+     * {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case OPEN:
+                if (ticker.read() - openedAt < coolDownNanos) {
+                    return false;
+                }
+                transitionTo(State.HALF_OPEN);
+                probing = true;
+                return true;
+            case HALF_OPEN:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            transitionTo(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            open();
+            return;
+        }
+
+        record(true);
+        if (state == State.CLOSED && calls == outcomes.length && failures * 100 >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+
+    /**
+     * Releases a permission without counting the request, e. g. if it has been rate limited.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    public synchronized State getState() {
+        // An open breaker whose cool-down has passed will let the next request through.
+        if (state == State.OPEN && ticker.read() - openedAt >= coolDownNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        openedAt = ticker.read();
+        transitionTo(State.OPEN);
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            LOG.warn("Circuit breaker for Slack webhook {} is open, requests are suspended for {} s.",
+                    name, TimeUnit.NANOSECONDS.toSeconds(coolDownNanos));
+        } else if (newState == State.CLOSED) {
+            LOG.info("Circuit breaker for Slack webhook {} is closed again.", name);
+        } else {
+            LOG.info("Circuit breaker for Slack webhook {} is half-open, sending probe request.", name);
+        }
+
+        state = newState;
+        calls = 0;
+        next = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,54 @@
+package org.graylog2.plugins.slack.circuit;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-wide registry of circuit breakers, one per webhook URL (or Web API URL and token), so that every output
+ * and alarm callback posting to the same webhook stops as soon as it's unavailable.
+ */
+public final class SlackCircuitBreakers {
+    public static final int DEFAULT_FAILURE_RATE = 50;
+    public static final int DEFAULT_COOL_DOWN = 30;
+    private static final int WINDOW_SIZE = 20;
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private SlackCircuitBreakers() {
+    }
+
+    /**
+     * Returns the circuit breaker of the given webhook. The settings of the first caller win.
+     *
+     * @param key the key the circuit breaker is shared by, which must not contain secrets in plain text.
+     */
+    public static CircuitBreaker forWebhook(String key, URL webhookUrl, int failureRate, int coolDownSeconds) {
+        CircuitBreaker breaker = BREAKERS.get(key);
+        if (breaker == null) {
+            final CircuitBreaker newBreaker = create(webhookUrl, failureRate, coolDownSeconds);
+            breaker = BREAKERS.putIfAbsent(key, newBreaker);
+            if (breaker == null) {
+                breaker = newBreaker;
+            }
+        }
+
+        return breaker;
+    }
+
+    /**
+     * Creates a circuit breaker which isn't shared with other users of the webhook.
+     */
+    public static CircuitBreaker create(URL webhookUrl, int failureRate, int coolDownSeconds) {
+        return new CircuitBreaker(redact(webhookUrl), failureRate, WINDOW_SIZE, coolDownSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The path of a webhook URL contains its secret, so only the host and the end of the path are logged.
+     */
+    private static String redact(URL webhookUrl) {
+        final String path = webhookUrl.getPath();
+        return webhookUrl.getHost() + (path.length() > 4 ? "/…" + path.substring(path.length() - 4) : path);
+    }
+}
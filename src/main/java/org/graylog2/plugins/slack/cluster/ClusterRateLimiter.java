@@ -0,0 +1,189 @@
+package org.graylog2.plugins.slack.cluster;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the nodes of a Graylog cluster within the rate limit of a webhook together: every node holds a lease
+ * on the webhook in a shared {@link RateLimitStore} and paces its requests to its share of the limit, the
+ * limit divided by the number of nodes holding a lease.
+ * <p>
+ * The limiter only sets the number of {@link TokenBucket#setShares(int) shares} of the node's bucket, the rate
+ * itself is set where the bucket is configured. A change of the rate therefore keeps the node's share.
+ * <p>
+ * Leases are renewed periodically, so the shares follow nodes joining and leaving the cluster. A node which
+ * can't reach the store keeps its current share. A webhook stays registered until every output which
+ * registered it has unregistered it again; the node's lease is released then, or expires if the node
+ * goes away without.
+ */
+@Singleton
+public class ClusterRateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterRateLimiter.class);
+    static final long RENEW_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10L);
+    // Long enough to survive a failed renewal.
+    static final long LEASE_TTL_MILLIS = 3 * RENEW_INTERVAL_MILLIS;
+
+    private final RateLimitStore store;
+    private final String nodeId;
+    // Changed while holding the map's lock, so registrations of the same webhook are counted correctly.
+    private final ConcurrentMap<String, Webhook> webhooks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    @Inject
+    public ClusterRateLimiter(RateLimitStore store) {
+        this(store, UUID.randomUUID().toString(), RENEW_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param renewIntervalMillis the interval in which leases are renewed, 0 to only renew them on registration and
+     *                            with {@link #renewAll()}.
+     */
+    public ClusterRateLimiter(RateLimitStore store, String nodeId, long renewIntervalMillis) {
+        this.store = store;
+        this.nodeId = nodeId;
+
+        if (renewIntervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("slack-cluster-rate-limit-%d")
+                    .setDaemon(true)
+                    .build());
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    renewAll();
+                }
+            }, renewIntervalMillis, renewIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Shares the rate limit of a webhook with the other nodes until it's {@link #unregister(String) unregistered}.
+     *
+     * @param rateLimitKey the {@link org.graylog2.plugins.slack.SlackClient#getRateLimitKey() rate limit key} of the webhook.
+     * @param bucket the node's bucket of the webhook, which is limited to the node's share.
+     */
+    public void register(String rateLimitKey, TokenBucket bucket) {
+        final String key = key(rateLimitKey);
+        final Webhook webhook;
+        synchronized (webhooks) {
+            final Webhook registered = webhooks.get(key);
+            if (registered != null && registered.bucket == bucket) {
+                registered.registrations++;
+                return;
+            }
+            webhook = new Webhook(key, bucket);
+            webhook.registrations = registered == null ? 1 : registered.registrations + 1;
+            webhooks.put(key, webhook);
+        }
+
+        // Take the share right away, not only with the next renewal.
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                renew(webhook);
+            }
+        });
+    }
+
+    /**
+     * Stops sharing the rate limit of a webhook once every registration of it has been unregistered. The node's
+     * bucket gets the full rate back, and its lease is released so the other nodes take over its share.
+     */
+    public void unregister(String rateLimitKey) {
+        final Webhook webhook;
+        synchronized (webhooks) {
+            webhook = webhooks.get(key(rateLimitKey));
+            if (webhook == null || --webhook.registrations > 0) {
+                return;
+            }
+            webhooks.remove(webhook.key);
+        }
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                release(webhook);
+            }
+        });
+    }
+
+    public void renewAll() {
+        for (Webhook webhook : webhooks.values()) {
+            renew(webhook);
+        }
+    }
+
+    private synchronized void renew(Webhook webhook) {
+        if (webhooks.get(webhook.key) != webhook) {
+            // Unregistered or registered again with another bucket in the meantime.
+            return;
+        }
+        final int nodes;
+        try {
+            nodes = store.renewLease(webhook.key, nodeId, LEASE_TTL_MILLIS);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not renew lease on the rate limit of a Slack webhook, keeping the current share.", e);
+            return;
+        }
+
+        if (nodes != webhook.nodes) {
+            LOG.debug("Rate limit of Slack webhook {} is shared by {} node(s).", webhook.key, nodes);
+            webhook.nodes = nodes;
+        }
+        webhook.bucket.setShares(nodes);
+    }
+
+    private synchronized void release(Webhook webhook) {
+        if (webhooks.containsKey(webhook.key)) {
+            // Registered again in the meantime.
+            return;
+        }
+        webhook.bucket.setShares(1);
+        try {
+            store.releaseLease(webhook.key, nodeId);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not release lease on the rate limit of a Slack webhook, it will expire.", e);
+        }
+    }
+
+    private void execute(Runnable task) {
+        if (scheduler == null) {
+            task.run();
+        } else {
+            scheduler.execute(task);
+        }
+    }
+
+    private static String key(String rateLimitKey) {
+        return Hashing.sha256().hashString(rateLimitKey, Charsets.UTF_8).toString();
+    }
+
+    private static class Webhook {
+        private final String key;
+        private final TokenBucket bucket;
+        // Guarded by the limiter, the number of nodes found by the last renewal.
+        private int nodes;
+        // Guarded by the map of webhooks.
+        private int registrations;
+
+        private Webhook(String key, TokenBucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.graylog2.plugins.slack.cluster;
+
+import com.google.common.base.Ticker;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RateLimitStore} which is only shared within the JVM, e. g. by several simulated nodes in tests.
+ */
+public class InMemoryRateLimitStore implements RateLimitStore {
+    private final Ticker ticker;
+    // Expiry of the leases by webhook and node, guarded by this.
+    private final Map<String, Map<String, Long>> leases = new HashMap<>();
+
+    public InMemoryRateLimitStore() {
+        this(Ticker.systemTicker());
+    }
+
+    public InMemoryRateLimitStore(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    @Override
+    public synchronized int renewLease(String key, String nodeId, long ttlMillis) {
+        final long now = ticker.read();
+        Map<String, Long> nodes = leases.get(key);
+        if (nodes == null) {
+            nodes = new HashMap<>();
+            leases.put(key, nodes);
+        }
+        nodes.put(nodeId, now + TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+
+        final Iterator<Long> expiries = nodes.values().iterator();
+        while (expiries.hasNext()) {
+            if (expiries.next() - now <= 0L) {
+                expiries.remove();
+            }
+        }
+        return nodes.size();
+    }
+
+    @Override
+    public synchronized void releaseLease(String key, String nodeId) {
+        final Map<String, Long> nodes = leases.get(key);
+        if (nodes != null) {
+            nodes.remove(nodeId);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.graylog2.plugins.slack.cluster;
+
+import com.google.inject.Inject;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.graylog2.database.MongoConnection;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RateLimitStore} in Graylog's MongoDB, which all nodes of the cluster share.
+ * <p>
+ * Every lease is a document with its expiry time. Expired leases aren't counted, and are removed by
+ * MongoDB's TTL monitor eventually. Expiry times are taken from the clock of the node renewing the lease,
+ * so the clocks of the nodes should be synchronized to well within the lease TTL.
+ */
+public class MongoRateLimitStore implements RateLimitStore {
+    static final String COLLECTION_NAME = "slack_rate_limit_leases";
+    private static final String FIELD_KEY = "key";
+    private static final String FIELD_NODE = "node_id";
+    private static final String FIELD_EXPIRES = "expires_at";
+
+    private final MongoCollection<Document> collection;
+
+    @Inject
+    public MongoRateLimitStore(MongoConnection mongoConnection) {
+        this.collection = mongoConnection.getMongoDatabase().getCollection(COLLECTION_NAME);
+        collection.createIndex(Indexes.ascending(FIELD_KEY, FIELD_EXPIRES));
+        collection.createIndex(Indexes.ascending(FIELD_EXPIRES), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public int renewLease(String key, String nodeId, long ttlMillis) {
+        final long now = System.currentTimeMillis();
+        collection.updateOne(
+                Filters.eq("_id", leaseId(key, nodeId)),
+                Updates.combine(
+                        Updates.set(FIELD_KEY, key),
+                        Updates.set(FIELD_NODE, nodeId),
+                        Updates.set(FIELD_EXPIRES, new Date(now + ttlMillis))),
+                new UpdateOptions().upsert(true));
+
+        final long count = collection.count(Filters.and(
+                Filters.eq(FIELD_KEY, key),
+                Filters.gt(FIELD_EXPIRES, new Date(now))));
+        // Our own lease counts even if the clock of the node is off.
+        return (int) Math.max(1L, count);
+    }
+
+    @Override
+    public void releaseLease(String key, String nodeId) {
+        collection.deleteOne(Filters.eq("_id", leaseId(key, nodeId)));
+    }
+
+    private static String leaseId(String key, String nodeId) {
+        return key + "/" + nodeId;
+    }
+}
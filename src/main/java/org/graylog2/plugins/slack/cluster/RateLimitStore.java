@@ -0,0 +1,21 @@
+package org.graylog2.plugins.slack.cluster;
+
+/**
+ * Store shared by the nodes of a Graylog cluster, in which every node holds a lease on the rate limit of
+ * each webhook it sends to. The nodes split the limit by the number of live leases.
+ */
+public interface RateLimitStore {
+    /**
+     * Creates or renews the lease of a node on a webhook's rate limit.
+     *
+     * @param key      identifies the webhook; it must not reveal the webhook URL, which contains its secret.
+     * @param ttlMillis the time after which the lease expires unless it's renewed again.
+     * @return the number of nodes, this one included, which hold a live lease on the webhook.
+     */
+    int renewLease(String key, String nodeId, long ttlMillis);
+
+    /**
+     * Releases the lease of a node on a webhook's rate limit, if it holds one.
+     */
+    void releaseLease(String key, String nodeId);
+}
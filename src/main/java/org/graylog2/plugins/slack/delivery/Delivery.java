@@ -0,0 +1,30 @@
+package org.graylog2.plugins.slack.delivery;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+
+/**
+ * A message waiting in a {@link Flow}, with the sender to send it with and its deadline.
+ */
+final class Delivery {
+    final RateLimitedSender sender;
+    final SlackMessage message;
+    final long deadline;
+    // Completed with the outcome of the delivery, if somebody waits for it.
+    final SettableFuture<Boolean> result;
+    final long enqueued = System.nanoTime();
+    // Used by one worker at a time.
+    final RateLimitedSender.Attempts attempts = new RateLimitedSender.Attempts();
+
+    Delivery(RateLimitedSender sender, SlackMessage message, long deadline, SettableFuture<Boolean> result) {
+        this.sender = sender;
+        this.message = message;
+        this.deadline = deadline;
+        this.result = result;
+    }
+
+    boolean isExpired(long now) {
+        return deadline != Long.MAX_VALUE && deadline - now <= 0L;
+    }
+}
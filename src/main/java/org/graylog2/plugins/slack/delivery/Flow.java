@@ -0,0 +1,72 @@
+package org.graylog2.plugins.slack.delivery;
+
+import org.graylog2.plugins.slack.ratelimit.AdaptiveConcurrencyLimit;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+
+/**
+ * A source of deliveries to one webhook, e. g. the queue of an output, which the {@link SlackDeliveryService}
+ * schedules fairly against the other flows to the same webhook.
+ * <p>
+ * The scheduling state is guarded by the service's lock.
+ */
+abstract class Flow {
+    final TokenBucket bucket;
+    final SlackDeliveryService.Priority priority;
+    final int weight;
+    final int concurrency;
+    final AdaptiveConcurrencyLimit concurrencyLimit;
+
+    // Scheduling state, guarded by the service's lock.
+    double finish;
+    boolean backlogged;
+    int inFlight;
+    // Deliveries waiting to be retried, which are in none of the flow's queues.
+    int retrying;
+
+    /**
+     * @param bucket      the rate limit of the webhook, which identifies its lane.
+     * @param priority    the class of the flow; flows of a higher class are always served first.
+     * @param weight      the share of the webhook's rate the flow gets while other flows of its class are backlogged.
+     * @param concurrency the number of concurrent requests to the webhook the flow asks for.
+     * @param concurrencyLimit the adaptive limit which replaces {@code concurrency}, or {@code null}.
+     */
+    Flow(TokenBucket bucket, SlackDeliveryService.Priority priority, int weight, int concurrency, AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.bucket = bucket;
+        this.priority = priority;
+        this.weight = Math.max(1, weight);
+        this.concurrency = Math.max(1, concurrency);
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * @return the next delivery without removing it, or {@code null} if the flow is empty.
+     */
+    abstract Delivery peek();
+
+    /**
+     * @return the next delivery, or {@code null} if the flow is empty.
+     */
+    abstract Delivery poll();
+
+    abstract boolean remove(Delivery delivery);
+
+    /**
+     * Puts a delivery which is retried back at the head of the flow.
+     *
+     * @return {@code false} if the flow doesn't take the delivery anymore and has disposed of it.
+     */
+    abstract boolean requeue(Delivery delivery);
+
+    /**
+     * Makes an attempt to send a delivery, with a token of the bucket already taken. Called by a worker without
+     * holding the lock.
+     *
+     * @return the delay in nanoseconds after which the delivery should be retried, or a negative value if it's done.
+     */
+    abstract long deliver(Delivery delivery);
+
+    /**
+     * Handles a delivery which has passed its deadline before it could be sent. Called without holding the lock.
+     */
+    abstract void expired(Delivery delivery);
+}
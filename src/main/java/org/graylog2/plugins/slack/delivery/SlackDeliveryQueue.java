@@ -0,0 +1,291 @@
+package org.graylog2.plugins.slack.delivery;
+
+import com.codahale.metrics.Gauge;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackMetrics;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.spool.SlackSpool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of {@link SlackMessage}s which is drained by the workers of a {@link SlackDeliveryService},
+ * so that the output buffer processor never waits for a Slack round-trip. The queue is one flow of its
+ * webhook's lane and gets a share of the webhook's rate according to its weight.
+ * <p>
+ * If a {@link SlackSpool} is given, messages which couldn't be delivered because Slack was unavailable
+ * and messages still queued at shutdown are written to the spool instead of being dropped.
+ * <p>
+ * If a delivery deadline is given, a message which can't be delivered within that time after it has been
+ * submitted (waiting for space in the queue, the rate limit and retries included) is spooled or dropped.
+ */
+public class SlackDeliveryQueue extends Flow {
+    private static final Logger LOG = LoggerFactory.getLogger(SlackDeliveryQueue.class);
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, DROP_NEWEST
+    }
+
+    private final RateLimitedSender sender;
+    private final SlackMetrics metrics;
+    private final OverflowPolicy overflowPolicy;
+    private final long deadlineNanos;
+    private final BlockingDeque<Delivery> queue;
+    private final SlackDeliveryService service;
+    private final SlackSpool spool;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean accepting = true;
+    // Guarded by this, set once the queue no longer takes back deliveries waiting for their retry.
+    private boolean stopped;
+
+    /**
+     * Creates a queue which is drained by the given (shared) service.
+     *
+     * @param concurrency    the maximum number of concurrent requests to the webhook.
+     * @param priority       the priority class of the queue's messages.
+     * @param weight         the share of the webhook's rate the queue gets when other flows compete for it.
+     * @param spool          the spool for undeliverable messages or {@code null} to drop them.
+     * @param deadlineMillis the delivery deadline of a message in milliseconds, 0 for none.
+     */
+    public SlackDeliveryQueue(SlackDeliveryService service,
+                              RateLimitedSender sender,
+                              SlackMetrics metrics,
+                              int capacity,
+                              int concurrency,
+                              SlackDeliveryService.Priority priority,
+                              int weight,
+                              OverflowPolicy overflowPolicy,
+                              SlackSpool spool,
+                              long deadlineMillis) {
+        super(sender.getBucket(), priority, weight, concurrency, sender.getConcurrencyLimit());
+        this.service = service;
+        this.sender = sender;
+        this.spool = spool;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.metrics = metrics;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new LinkedBlockingDeque<>(Math.max(1, capacity));
+
+        metrics.registerGauge("queueSize", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+        });
+        service.register(this);
+    }
+
+    /**
+     * Enqueues a message for delivery, applying the configured overflow policy if the queue is full.
+     *
+     * @return {@code true} if the message has been queued, {@code false} if it has been dropped.
+     */
+    public boolean submit(SlackMessage message) throws InterruptedException {
+        return submit(message, true);
+    }
+
+    /**
+     * Enqueues a message without waiting for space in the queue. If the queue is full, a message of the
+     * {@link OverflowPolicy#BLOCK} policy is spooled or dropped right away; the other policies apply as usual.
+     *
+     * @return {@code true} if the message has been queued, {@code false} if it has been spooled or dropped.
+     */
+    public boolean offer(SlackMessage message) {
+        try {
+            return submit(message, false);
+        } catch (InterruptedException e) {
+            // Can't happen, nothing waits.
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean submit(SlackMessage message, boolean wait) throws InterruptedException {
+        if (!accepting) {
+            LOG.debug("Delivery queue has been stopped, dropping message.");
+            markDropped();
+            return false;
+        }
+
+        final Delivery delivery = new Delivery(sender, message, deadlineNanos > 0L ? System.nanoTime() + deadlineNanos : Long.MAX_VALUE, null);
+        if (!enqueue(delivery, wait)) {
+            return false;
+        }
+        service.signal(this);
+        return true;
+    }
+
+    private boolean enqueue(Delivery delivery, boolean wait) throws InterruptedException {
+        switch (overflowPolicy) {
+            case BLOCK:
+                if (!wait) {
+                    if (queue.offerLast(delivery)) {
+                        return true;
+                    }
+                    overflowed(delivery.message);
+                    return false;
+                }
+                if (deadlineNanos <= 0L) {
+                    queue.putLast(delivery);
+                    return true;
+                }
+                if (queue.offerLast(delivery, deadlineNanos, TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+                expired(delivery);
+                return false;
+            case DROP_OLDEST:
+                while (!queue.offerLast(delivery)) {
+                    if (queue.pollFirst() != null) {
+                        markDropped();
+                    }
+                }
+                return true;
+            case DROP_NEWEST:
+            default:
+                if (queue.offerLast(delivery)) {
+                    return true;
+                }
+                markDropped();
+                return false;
+        }
+    }
+
+    /**
+     * Stops accepting new messages and waits up to the given timeout for queued messages to be delivered.
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        accepting = false;
+
+        boolean idle = false;
+        try {
+            idle = service.awaitIdle(this, timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                stopped = true;
+            }
+            service.unregister(this);
+            if (!idle) {
+                if (spool == null) {
+                    LOG.warn("Could not deliver {} queued Slack messages before shutdown.", queue.size());
+                } else {
+                    LOG.info("Spooling {} queued Slack messages on shutdown.", queue.size());
+                    Delivery delivery;
+                    while ((delivery = queue.pollFirst()) != null) {
+                        spool(delivery.message);
+                    }
+                }
+            }
+            metrics.removeGauges();
+        }
+    }
+
+    @Override
+    Delivery peek() {
+        return queue.peekFirst();
+    }
+
+    @Override
+    Delivery poll() {
+        return queue.pollFirst();
+    }
+
+    @Override
+    boolean remove(Delivery delivery) {
+        return queue.removeFirstOccurrence(delivery);
+    }
+
+    @Override
+    synchronized boolean requeue(Delivery delivery) {
+        if (stopped) {
+            // The retry is due after the queue has been stopped, the message is spooled like the rest of the queue.
+            if (spool == null) {
+                LOG.debug("Delivery queue has been stopped, dropping message.");
+                markDropped();
+            } else {
+                spool(delivery.message);
+            }
+            return false;
+        }
+        if (!queue.offerFirst(delivery)) {
+            overflowed(delivery.message);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    long deliver(Delivery delivery) {
+        final SlackMessage message = delivery.message;
+        try {
+            return sender.attempt(message, delivery.attempts);
+        } catch (SlackClient.SlackClientException e) {
+            if (spool != null && (e.isRetryable() || e.isRateLimited())) {
+                LOG.debug("Could not send message to Slack, spooling it: {}", e.getMessage());
+                spool(message);
+            } else {
+                LOG.warn("Could not send message to Slack: {}", e.getMessage());
+            }
+            return -1L;
+        }
+    }
+
+    @Override
+    void expired(Delivery delivery) {
+        expired(delivery.message);
+    }
+
+    private void expired(SlackMessage message) {
+        metrics.expired().mark();
+        if (spool == null) {
+            LOG.debug("Could not deliver message to Slack before its deadline, dropping it.");
+            markDropped();
+        } else {
+            LOG.debug("Could not deliver message to Slack before its deadline, spooling it.");
+            spool(message);
+        }
+    }
+
+    private void overflowed(SlackMessage message) {
+        if (spool == null) {
+            LOG.debug("Delivery queue is full, dropping message.");
+            markDropped();
+        } else {
+            LOG.debug("Delivery queue is full, spooling message.");
+            spool(message);
+        }
+    }
+
+    private void spool(SlackMessage message) {
+        try {
+            spool.append(message.getJsonBytes());
+            metrics.spooled().mark();
+        } catch (IOException e) {
+            LOG.error("Could not spool Slack message.", e);
+            markDropped();
+        }
+    }
+
+    private void markDropped() {
+        dropped.incrementAndGet();
+        metrics.dropped().mark();
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,593 @@
+package org.graylog2.plugins.slack.delivery;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.ratelimit.AdaptiveConcurrencyLimit;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Node-wide delivery of Slack messages by a fixed pool of worker threads, shared by all outputs and alarm
+ * callbacks.
+ * <p>
+ * Messages are sent through one lane per webhook (identified by its {@link TokenBucket}). A worker only takes
+ * a message from a lane once it got a token of the lane's rate limit, so workers never wait for a rate
+ * limited webhook while messages to others are pending, and a lane never has more concurrent requests than
+ * its flows ask for. A flow may ask for an {@link AdaptiveConcurrencyLimit} instead of a fixed number.
+ * <p>
+ * Within a lane, the {@link Flow}s (e. g. the queues of the outputs of different streams) are served by
+ * weighted fair queuing: every message advances the virtual finish time of its flow by {@code 1 / weight},
+ * and the backlogged flow with the earliest finish time goes next. A noisy stream therefore gets its share
+ * of the webhook's rate, but can't starve the others.
+ * <p>
+ * Fair queuing only applies within a {@link Priority} class. A backlogged flow of a higher class is always
+ * served first, and the lower classes leave part of the rate limit's burst unused, so an alert doesn't have
+ * to wait for the next token when the outputs are busy.
+ * <p>
+ * Workers never wait for a retry either: a delivery which should be retried later is put back at the head of its
+ * flow when its backoff is over, and has to get a token of the lane again.
+ * <p>
+ * The retries share one {@link #getScheduler() scheduler} with the timers of the outputs, e. g. batch flushes,
+ * summaries and the replay of spooled messages, so an output doesn't need threads of its own.
+ */
+@Singleton
+public class SlackDeliveryService {
+    private static final Logger LOG = LoggerFactory.getLogger(SlackDeliveryService.class);
+    public static final int DEFAULT_WORKER_COUNT = 8;
+    private static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1L);
+    private static final long IDLE_POLL_INTERVAL_MS = 50L;
+    // The part of a lane's burst every class leaves to each class above it.
+    private static final double RESERVED_SHARE = 0.25d;
+
+    /**
+     * Priority classes of flows, highest first.
+     */
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    // Guarded by lock.
+    private final Map<TokenBucket, Lane> lanes = new IdentityHashMap<>();
+    private final List<Lane> laneOrder = new ArrayList<>();
+    private int nextLane;
+    private boolean running = true;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Priority, Timer> queueDelays = new EnumMap<>(Priority.class);
+
+    @Inject
+    public SlackDeliveryService(MetricRegistry metricRegistry) {
+        this(metricRegistry, DEFAULT_WORKER_COUNT);
+    }
+
+    public SlackDeliveryService(int workerCount) {
+        this(new MetricRegistry(), workerCount);
+    }
+
+    public SlackDeliveryService(MetricRegistry metricRegistry, int workerCount) {
+        metricRegistry.register(MetricRegistry.name(SlackDeliveryService.class, "lanes"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return laneCount();
+            }
+        });
+        for (Priority priority : Priority.values()) {
+            queueDelays.put(priority, metricRegistry.timer(
+                    MetricRegistry.name(SlackDeliveryService.class, "queueDelay", priority.name().toLowerCase(Locale.ENGLISH))));
+        }
+
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), new ThreadFactoryBuilder()
+                .setNameFormat("slack-delivery-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            workers.execute(new Worker());
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("slack-delivery-scheduler-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * @return the service used by outputs and alarm callbacks which haven't been created by the injector.
+     */
+    public static SlackDeliveryService defaultInstance() {
+        return DefaultInstance.INSTANCE;
+    }
+
+    /**
+     * Sends a single message through the lane of its webhook. Messages sent this way share one flow per lane
+     * and priority.
+     *
+     * @param deadline the deadline in terms of {@link System#nanoTime()}, {@link Long#MAX_VALUE} for none.
+     * @return a future which is completed with {@code true} once the message has been sent, with {@code false}
+     * if it couldn't be sent before its deadline, or with the {@link SlackClient.SlackClientException}.
+     */
+    public ListenableFuture<Boolean> send(RateLimitedSender sender, SlackMessage message, Priority priority, long deadline) {
+        final SettableFuture<Boolean> result = SettableFuture.create();
+        final DirectFlow flow;
+        lock.lock();
+        try {
+            flow = lane(sender.getBucket()).directFlow(priority);
+        } finally {
+            lock.unlock();
+        }
+
+        flow.deliveries.offerLast(new Delivery(sender, message, deadline, result));
+        signal(flow);
+        return result;
+    }
+
+    /**
+     * @return the scheduler shared by the retries of the service and the timers of its users. Its tasks must
+     * not block, since they delay all others, and users cancel their tasks instead of shutting it down.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    void register(Flow flow) {
+        lock.lock();
+        try {
+            lane(flow.bucket).add(flow);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unregister(Flow flow) {
+        lock.lock();
+        try {
+            final Lane lane = lanes.get(flow.bucket);
+            if (lane != null) {
+                lane.remove(flow);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the service that a delivery has been added to the flow.
+     */
+    void signal(Flow flow) {
+        lock.lock();
+        try {
+            final Lane lane = lanes.get(flow.bucket);
+            if (!flow.backlogged) {
+                flow.backlogged = true;
+                // A flow which has been idle doesn't get credit for the time it didn't use.
+                flow.finish = Math.max(flow.finish, lane == null ? 0.0d : lane.virtualTimes[flow.priority.ordinal()]);
+            }
+            if (lane != null && flow.priority.compareTo(lane.blockedPriority) < 0) {
+                // The lane waits for a token a more important flow may take earlier.
+                lane.notBefore = System.nanoTime();
+                lane.blockedPriority = flow.priority;
+            }
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the flow has no deliveries in flight or waiting to be retried.
+     *
+     * @return {@code true} if the flow is idle, {@code false} if the timeout elapsed before.
+     */
+    boolean awaitIdle(Flow flow, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            lock.lock();
+            try {
+                if (flow.inFlight == 0 && flow.retrying == 0 && flow.peek() == null) {
+                    return true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (System.nanoTime() - deadline >= 0L) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(IDLE_POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Stops the workers. Only meant for services which aren't shared.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private int laneCount() {
+        lock.lock();
+        try {
+            return laneOrder.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lane lane(TokenBucket bucket) {
+        Lane lane = lanes.get(bucket);
+        if (lane == null) {
+            lane = new Lane(bucket);
+            lanes.put(bucket, lane);
+            laneOrder.add(lane);
+        }
+        return lane;
+    }
+
+    /**
+     * Waits for the next delivery which may be sent. Expired deliveries found on the way are collected.
+     */
+    private Task next(List<Task> expired) throws InterruptedException {
+        lock.lock();
+        try {
+            while (running) {
+                final long now = System.nanoTime();
+                long waitNanos = MAX_WAIT_NANOS;
+                final int lanesCount = laneOrder.size();
+                for (int i = 0; i < lanesCount; i++) {
+                    // Lanes are served round-robin, starting after the one served last.
+                    final int index = (nextLane + i) % lanesCount;
+                    final Lane lane = laneOrder.get(index);
+                    final Task task = lane.poll(now, expired);
+                    if (task != null) {
+                        nextLane = index + 1;
+                        return task;
+                    }
+                    if (!expired.isEmpty()) {
+                        return null;
+                    }
+                    if (lane.notBefore - now > 0L) {
+                        waitNanos = Math.min(waitNanos, lane.notBefore - now);
+                    }
+                }
+                ready.awaitNanos(waitNanos);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param retry {@code true} if the delivery is going to be retried.
+     */
+    private void complete(Task task, boolean retry) {
+        lock.lock();
+        try {
+            task.lane.inFlight--;
+            task.flow.inFlight--;
+            if (retry) {
+                task.flow.retrying++;
+            }
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts a delivery back into its flow after the given delay, unless its deadline passes before.
+     */
+    private void retry(final Flow flow, final Delivery delivery, long delayNanos) {
+        if (delivery.isExpired(System.nanoTime() + delayNanos)) {
+            retried(flow, delivery, false);
+            return;
+        }
+        if (delayNanos <= 0L) {
+            retried(flow, delivery, true);
+            return;
+        }
+
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retried(flow, delivery, true);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The service has been shut down.
+            retried(flow, delivery, false);
+        }
+    }
+
+    private void retried(Flow flow, Delivery delivery, boolean requeue) {
+        boolean requeued = false;
+        try {
+            if (requeue) {
+                requeued = flow.requeue(delivery);
+            } else {
+                flow.expired(delivery);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error while retrying Slack message.", e);
+        } finally {
+            lock.lock();
+            try {
+                flow.retrying--;
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (requeued) {
+            signal(flow);
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            final List<Task> expired = new ArrayList<>();
+            while (!Thread.currentThread().isInterrupted()) {
+                final Task task;
+                try {
+                    task = next(expired);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                for (Task expiredTask : expired) {
+                    try {
+                        expiredTask.flow.expired(expiredTask.delivery);
+                    } catch (RuntimeException e) {
+                        LOG.error("Unexpected error while handling expired Slack message.", e);
+                    }
+                }
+                expired.clear();
+
+                if (task == null) {
+                    continue;
+                }
+                queueDelays.get(task.flow.priority).update(System.nanoTime() - task.delivery.enqueued, TimeUnit.NANOSECONDS);
+                long retryDelay = -1L;
+                try {
+                    retryDelay = task.flow.deliver(task.delivery);
+                } catch (RuntimeException e) {
+                    LOG.error("Unexpected error while sending message to Slack.", e);
+                } finally {
+                    complete(task, retryDelay >= 0L);
+                }
+                if (retryDelay >= 0L) {
+                    retry(task.flow, task.delivery, retryDelay);
+                }
+            }
+        }
+    }
+
+    private static final class Task {
+        private final Lane lane;
+        private final Flow flow;
+        private final Delivery delivery;
+
+        private Task(Lane lane, Flow flow, Delivery delivery) {
+            this.lane = lane;
+            this.flow = flow;
+            this.delivery = delivery;
+        }
+    }
+
+    /**
+     * The flows to one webhook. Guarded by the service's lock.
+     */
+    private static final class Lane {
+        private final TokenBucket bucket;
+        private final List<Flow> flows = Lists.newArrayList();
+        private final Map<Priority, DirectFlow> directFlows = new EnumMap<>(Priority.class);
+        // Virtual time of each class, the finish time of its flow served last.
+        private final double[] virtualTimes = new double[Priority.values().length];
+        private long notBefore;
+        // The class of the flow whose token notBefore waits for.
+        private Priority blockedPriority = Priority.LOW;
+        private int inFlight;
+        // The largest fixed concurrency of the flows, and the adaptive limit of the webhook if a flow has one.
+        private int concurrency = 1;
+        private AdaptiveConcurrencyLimit concurrencyLimit;
+
+        private Lane(TokenBucket bucket) {
+            this.bucket = bucket;
+            this.notBefore = System.nanoTime();
+        }
+
+        private void add(Flow flow) {
+            flows.add(flow);
+            updateConcurrency();
+        }
+
+        private void remove(Flow flow) {
+            flows.remove(flow);
+            updateConcurrency();
+        }
+
+        private void updateConcurrency() {
+            concurrency = 1;
+            concurrencyLimit = null;
+            for (Flow flow : flows) {
+                if (flow.concurrencyLimit == null) {
+                    concurrency = Math.max(concurrency, flow.concurrency);
+                } else if (concurrencyLimit == null) {
+                    concurrencyLimit = flow.concurrencyLimit;
+                }
+            }
+        }
+
+        private int concurrency() {
+            return concurrencyLimit == null ? concurrency : Math.max(concurrency, concurrencyLimit.getLimit());
+        }
+
+        private DirectFlow directFlow(Priority priority) {
+            DirectFlow directFlow = directFlows.get(priority);
+            if (directFlow == null) {
+                directFlow = new DirectFlow(bucket, priority);
+                directFlows.put(priority, directFlow);
+                add(directFlow);
+            }
+            return directFlow;
+        }
+
+        private Task poll(long now, List<Task> expired) {
+            if (notBefore - now > 0L) {
+                return null;
+            }
+
+            while (true) {
+                final Flow flow = nextFlow();
+                if (flow == null) {
+                    return null;
+                }
+                // The highest class may use one request more than the lane's limit, so it doesn't wait for a slow one.
+                if (inFlight >= concurrency() + (flow.priority == Priority.HIGH ? 1 : 0)) {
+                    return null;
+                }
+
+                final Delivery head = flow.peek();
+                if (head == null) {
+                    flow.backlogged = false;
+                    continue;
+                }
+                if (head.isExpired(now)) {
+                    if (flow.remove(head)) {
+                        expired.add(new Task(this, flow, head));
+                        // Handled outside of the lock, the expired deliveries may have to be spooled.
+                        return null;
+                    }
+                    continue;
+                }
+
+                final long waitNanos = bucket.tryAcquire(flow.priority.ordinal() * RESERVED_SHARE * bucket.getBurst());
+                if (waitNanos > 0L) {
+                    notBefore = now + waitNanos;
+                    blockedPriority = flow.priority;
+                    return null;
+                }
+
+                final Delivery delivery = flow.poll();
+                if (delivery == null) {
+                    // Taken by the overflow policy in the meantime, the token is lost.
+                    flow.backlogged = false;
+                    continue;
+                }
+
+                blockedPriority = Priority.LOW;
+                virtualTimes[flow.priority.ordinal()] = flow.finish;
+                flow.finish += 1.0d / flow.weight;
+                inFlight++;
+                flow.inFlight++;
+                return new Task(this, flow, delivery);
+            }
+        }
+
+        private Flow nextFlow() {
+            Flow next = null;
+            for (Flow flow : flows) {
+                if (flow.backlogged && (next == null || isBefore(flow, next))) {
+                    next = flow;
+                }
+            }
+            return next;
+        }
+
+        private static boolean isBefore(Flow flow, Flow other) {
+            final int order = flow.priority.compareTo(other.priority);
+            return order < 0 || order == 0 && flow.finish < other.finish;
+        }
+    }
+
+    /**
+     * Flow of the messages sent with {@link #send(RateLimitedSender, SlackMessage, Priority, long)}, whose senders wait
+     * for the outcome themselves.
+     */
+    private static final class DirectFlow extends Flow {
+        private final ConcurrentLinkedDeque<Delivery> deliveries = new ConcurrentLinkedDeque<>();
+
+        private DirectFlow(TokenBucket bucket, Priority priority) {
+            super(bucket, priority, 1, 1, null);
+        }
+
+        @Override
+        Delivery peek() {
+            return deliveries.peekFirst();
+        }
+
+        @Override
+        Delivery poll() {
+            return deliveries.pollFirst();
+        }
+
+        @Override
+        boolean remove(Delivery delivery) {
+            return deliveries.removeFirstOccurrence(delivery);
+        }
+
+        @Override
+        boolean requeue(Delivery delivery) {
+            deliveries.offerFirst(delivery);
+            return true;
+        }
+
+        @Override
+        long deliver(Delivery delivery) {
+            try {
+                final long retryDelay = delivery.sender.attempt(delivery.message, delivery.attempts);
+                if (retryDelay == RateLimitedSender.SENT) {
+                    delivery.result.set(true);
+                }
+                return retryDelay;
+            } catch (SlackClient.SlackClientException | RuntimeException e) {
+                delivery.result.setException(e);
+                return -1L;
+            }
+        }
+
+        @Override
+        void expired(Delivery delivery) {
+            delivery.result.set(false);
+        }
+    }
+
+    private static class DefaultInstance {
+        private static final SlackDeliveryService INSTANCE = new SlackDeliveryService(DEFAULT_WORKER_COUNT);
+    }
+}
@@ -0,0 +1,149 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalListeners;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.graylog2.plugin.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Strings.nullToEmpty;
+
+/**
+ * Suppresses repeated messages within a time window.
+ * <p>
+ * Messages are keyed by a 64 bit hash of their text, source and the configured fields. The first message
+ * of a key is passed on, repeats within the window are only counted. When the window of a repeated key
+ * closes, the {@link SummaryListener} is notified with the number of occurrences. The number of tracked
+ * keys is bounded; keys evicted because of the bound are summarized early.
+ * <p>
+ * The listener is notified on the given scheduler, so evicting a key doesn't hold up the caller of
+ * {@link #shouldSend(Message)} while the summary is sent. Once the deduplicator is stopped, the remaining
+ * summaries are sent by the caller of {@link #stop()}.
+ */
+public class MessageDeduplicator {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageDeduplicator.class);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int MAX_SUMMARY_TEXT_LENGTH = 500;
+
+    public interface SummaryListener {
+        void onRepeated(String source, String message, long occurrences, long windowSeconds);
+    }
+
+    private final String[] fields;
+    private final long windowSeconds;
+    private final Cache<Long, Occurrence> occurrences;
+    private final ScheduledFuture<?> cleanup;
+
+    private volatile boolean stopped;
+
+    public MessageDeduplicator(long windowSeconds,
+                               List<String> fields,
+                               long maxKeys,
+                               final ScheduledExecutorService scheduler,
+                               final SummaryListener listener) {
+        this.windowSeconds = windowSeconds;
+        this.fields = fields.toArray(new String[fields.size()]);
+        final Executor summaries = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (stopped) {
+                    command.run();
+                } else {
+                    scheduler.execute(command);
+                }
+            }
+        };
+        this.occurrences = CacheBuilder.newBuilder()
+                .expireAfterWrite(windowSeconds, TimeUnit.SECONDS)
+                .maximumSize(maxKeys)
+                .removalListener(RemovalListeners.asynchronous(new RemovalListener<Long, Occurrence>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Long, Occurrence> notification) {
+                        final Occurrence occurrence = notification.getValue();
+                        if (occurrence != null && occurrence.count.get() > 1L) {
+                            try {
+                                listener.onRepeated(occurrence.source, occurrence.message, occurrence.count.get(), MessageDeduplicator.this.windowSeconds);
+                            } catch (RuntimeException e) {
+                                LOG.error("Could not send summary of repeated messages.", e);
+                            }
+                        }
+                    }
+                }, summaries))
+                .build();
+
+        // Expired entries are only removed (and summarized) on cache access, so clean up regularly.
+        final long cleanupInterval = Math.max(1L, TimeUnit.SECONDS.toMillis(windowSeconds) / 4);
+        this.cleanup = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                occurrences.cleanUp();
+            }
+        }, cleanupInterval, cleanupInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return {@code true} if this is the first occurrence of the message within the window.
+     */
+    public boolean shouldSend(Message message) {
+        final Long key = key(message);
+        Occurrence existing = occurrences.getIfPresent(key);
+        if (existing == null) {
+            existing = occurrences.asMap().putIfAbsent(key, new Occurrence(message));
+            if (existing == null) {
+                return true;
+            }
+        }
+
+        existing.count.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stops the deduplicator and summarizes all open windows.
+     */
+    public void stop() {
+        stopped = true;
+        cleanup.cancel(false);
+        occurrences.invalidateAll();
+    }
+
+    private long key(Message message) {
+        final Hasher hasher = HASH_FUNCTION.newHasher()
+                .putString(nullToEmpty(message.getMessage()), Charsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(nullToEmpty(message.getSource()), Charsets.UTF_8);
+        for (String field : fields) {
+            final Object value = message.getField(field);
+            hasher.putByte((byte) 0).putString(value == null ? "" : value.toString(), Charsets.UTF_8);
+        }
+
+        return hasher.hash().asLong();
+    }
+
+    private static final class Occurrence {
+        private final String source;
+        private final String message;
+        private final AtomicLong count = new AtomicLong(1L);
+
+        private Occurrence(Message message) {
+            // Only keep what's needed for the summary instead of the complete message.
+            final String text = message.getMessage();
+            this.source = message.getSource();
+            this.message = text == null || text.length() <= MAX_SUMMARY_TEXT_LENGTH ? text : text.substring(0, MAX_SUMMARY_TEXT_LENGTH) + "…";
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugins.slack.SlackText;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Rolls the messages of a stream up into a periodic digest instead of forwarding them: the number of
+ * messages, the number per syslog level, and the most frequent sources and messages.
+ * <p>
+ * Memory doesn't grow with the number of messages: the frequent sources and messages are found with
+ * {@link SpaceSaving}, and messages are only counted by their first {@value #MAX_KEY_BYTES} bytes.
+ */
+public class MessageDigest {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageDigest.class);
+    private static final int MAX_KEY_BYTES = 256;
+    // More counters than reported items make the reported counts more accurate.
+    private static final int COUNTERS_PER_ITEM = 10;
+    private static final String[] LEVELS = {
+            "Emergency", "Alert", "Critical", "Error", "Warning", "Notice", "Informational", "Debug", "Unknown"
+    };
+    private static final int UNKNOWN_LEVEL = LEVELS.length - 1;
+
+    public interface DigestListener {
+        void onDigest(Summary summary);
+    }
+
+    private final int topK;
+    private final DigestListener listener;
+    private final ScheduledFuture<?> publication;
+
+    // Guarded by this.
+    private long count;
+    private long[] levelCounts;
+    private SpaceSaving<String> sources;
+    private SpaceSaving<String> messages;
+    private long intervalStart;
+
+    /**
+     * @param scheduler the scheduler of the digests, only needed if the interval is positive.
+     */
+    public MessageDigest(final long intervalSeconds, int topK, ScheduledExecutorService scheduler, DigestListener listener) {
+        this.topK = Math.max(1, topK);
+        this.listener = listener;
+        reset(System.nanoTime());
+
+        if (intervalSeconds > 0) {
+            this.publication = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    publish();
+                }
+            }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.publication = null;
+        }
+    }
+
+    public synchronized void add(Message message) {
+        count++;
+        levelCounts[level(message)]++;
+        sources.add(isNullOrEmpty(message.getSource()) ? "unknown" : message.getSource());
+        final String text = message.getMessage();
+        if (text != null) {
+            messages.add(SlackText.truncate(text, MAX_KEY_BYTES));
+        }
+    }
+
+    /**
+     * Starts a new interval.
+     *
+     * @return the digest of the interval which has ended, or {@code null} if there were no messages.
+     */
+    public synchronized Summary flush() {
+        final long now = System.nanoTime();
+        final Summary summary;
+        if (count == 0L) {
+            summary = null;
+        } else {
+            final ImmutableMap.Builder<String, Long> levels = ImmutableMap.builder();
+            for (int i = 0; i < LEVELS.length; i++) {
+                if (levelCounts[i] > 0L) {
+                    levels.put(LEVELS[i], levelCounts[i]);
+                }
+            }
+            summary = new Summary(count, levels.build(), sources.top(topK), messages.top(topK),
+                    TimeUnit.NANOSECONDS.toSeconds(now - intervalStart));
+        }
+        reset(now);
+        return summary;
+    }
+
+    /**
+     * Stops the digest and publishes the messages of the current interval.
+     */
+    public void stop() {
+        if (publication != null) {
+            publication.cancel(false);
+        }
+        publish();
+    }
+
+    private void publish() {
+        final Summary summary = flush();
+        if (summary != null) {
+            try {
+                listener.onDigest(summary);
+            } catch (RuntimeException e) {
+                LOG.error("Could not send message digest.", e);
+            }
+        }
+    }
+
+    private void reset(long now) {
+        count = 0L;
+        levelCounts = new long[LEVELS.length];
+        sources = new SpaceSaving<>(topK * COUNTERS_PER_ITEM);
+        messages = new SpaceSaving<>(topK * COUNTERS_PER_ITEM);
+        intervalStart = now;
+    }
+
+    private static int level(Message message) {
+        final Object value = message.getField("level");
+        final Integer level;
+        if (value instanceof Number) {
+            level = ((Number) value).intValue();
+        } else if (value instanceof String) {
+            level = Ints.tryParse((String) value);
+        } else {
+            level = null;
+        }
+        return level == null || level < 0 || level >= UNKNOWN_LEVEL ? UNKNOWN_LEVEL : level;
+    }
+
+    public static class Summary {
+        private final long count;
+        private final Map<String, Long> levelCounts;
+        private final List<SpaceSaving.Entry<String>> topSources;
+        private final List<SpaceSaving.Entry<String>> topMessages;
+        private final long intervalSeconds;
+
+        private Summary(long count,
+                        Map<String, Long> levelCounts,
+                        List<SpaceSaving.Entry<String>> topSources,
+                        List<SpaceSaving.Entry<String>> topMessages,
+                        long intervalSeconds) {
+            this.count = count;
+            this.levelCounts = levelCounts;
+            this.topSources = topSources;
+            this.topMessages = topMessages;
+            this.intervalSeconds = intervalSeconds;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of messages per level name, the most severe level first.
+         */
+        public Map<String, Long> getLevelCounts() {
+            return levelCounts;
+        }
+
+        public List<SpaceSaving.Entry<String>> getTopSources() {
+            return topSources;
+        }
+
+        public List<SpaceSaving.Entry<String>> getTopMessages() {
+            return topMessages;
+        }
+
+        public long getIntervalSeconds() {
+            return intervalSeconds;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.graylog2.plugins.slack.output;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which messages of a stream are forwarded to Slack. The decision only depends on the
+ * number and arrival time of messages, so it's made before a message is rendered.
+ */
+public class MessageSampler {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageSampler.class);
+    private static final long RATE_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1L);
+
+    public enum Mode {
+        /**
+         * Forward every message.
+         */
+        NONE,
+        /**
+         * Forward every Nth message.
+         */
+        EVERY_NTH,
+        /**
+         * Forward each message with a probability of N percent.
+         */
+        PERCENTAGE,
+        /**
+         * Forward at most N messages per minute.
+         */
+        RATE
+    }
+
+    public interface SummaryListener {
+        void onSkipped(long skipped, long intervalSeconds);
+    }
+
+    private final Mode mode;
+    private final int value;
+    private final AtomicLong seen = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final ScheduledFuture<?> summary;
+
+    private long rateWindowStart;
+    private int rateWindowCount;
+
+    /**
+     * @param scheduler the scheduler of the summaries, only needed if the summary interval is positive.
+     */
+    public MessageSampler(Mode mode,
+                          int value,
+                          final long summaryIntervalSeconds,
+                          ScheduledExecutorService scheduler,
+                          final SummaryListener listener) {
+        this.mode = mode;
+        this.value = Math.max(1, value);
+
+        if (summaryIntervalSeconds > 0) {
+            this.summary = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    final long count = skipped.getAndSet(0L);
+                    if (count > 0L) {
+                        try {
+                            listener.onSkipped(count, summaryIntervalSeconds);
+                        } catch (RuntimeException e) {
+                            LOG.error("Could not send sampling summary.", e);
+                        }
+                    }
+                }
+            }, summaryIntervalSeconds, summaryIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.summary = null;
+        }
+    }
+
+    /**
+     * @return {@code true} if the message should be forwarded.
+     */
+    public boolean sample() {
+        final boolean accepted;
+        switch (mode) {
+            case EVERY_NTH:
+                accepted = seen.getAndIncrement() % value == 0L;
+                break;
+            case PERCENTAGE:
+                accepted = ThreadLocalRandom.current().nextInt(100) < value;
+                break;
+            case RATE:
+                accepted = acceptWithinRate(System.currentTimeMillis());
+                break;
+            case NONE:
+            default:
+                accepted = true;
+        }
+
+        if (!accepted) {
+            skipped.incrementAndGet();
+        }
+        return accepted;
+    }
+
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    public void stop() {
+        if (summary != null) {
+            summary.cancel(false);
+        }
+    }
+
+    private synchronized boolean acceptWithinRate(long now) {
+        if (now - rateWindowStart >= RATE_WINDOW_MILLIS) {
+            rateWindowStart = now;
+            rateWindowCount = 0;
+        }
+        if (rateWindowCount < value) {
+            rateWindowCount++;
+            return true;
+        }
+        return false;
+    }
+}
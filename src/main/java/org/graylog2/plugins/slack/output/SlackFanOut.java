@@ -0,0 +1,146 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackTarget;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryQueue;
+import org.graylog2.plugins.slack.spool.SlackSpool;
+import org.graylog2.plugins.slack.spool.SpoolReplayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts every message to all targets of an output.
+ * <p>
+ * A message is rendered once and copied for every target with just the channel replaced. Each target has its
+ * own {@link SlackDeliveryQueue}, so the targets are sent to in parallel and a slow or unavailable webhook
+ * doesn't hold up the others. Messages without a thread key get the one of the output, so with the Web API
+ * they are threaded per stream.
+ * <p>
+ * With more than one target, messages are offered to the queues without waiting: a full queue of a target
+ * spools or drops its copy (and counts it in the target's metrics) even with the
+ * {@link SlackDeliveryQueue.OverflowPolicy#BLOCK} policy. A single target blocks as configured, unless the
+ * message is {@link #offer(SlackMessage) offered}.
+ */
+public class SlackFanOut {
+    private static final Logger LOG = LoggerFactory.getLogger(SlackFanOut.class);
+
+    private final List<Target> targets;
+    private final List<String> channels;
+    private final String threadKey;
+
+    /**
+     * @param threadKey the thread key of messages which don't have one or {@code null}.
+     */
+    public SlackFanOut(List<Target> targets, String threadKey) {
+        this.targets = ImmutableList.copyOf(targets);
+        this.threadKey = threadKey;
+        final ImmutableList.Builder<String> channels = ImmutableList.builder();
+        for (Target target : targets) {
+            channels.add(target.target.getChannel());
+        }
+        this.channels = channels.build();
+    }
+
+    /**
+     * Submits a message (without channel) to the delivery queues of all targets.
+     *
+     * @return {@code true} if the message has been queued for all targets.
+     */
+    public boolean submit(SlackMessage message) throws InterruptedException {
+        setThreadKey(message);
+        final List<SlackMessage> copies = message.forChannels(channels);
+        boolean queued = true;
+        for (int i = 0; i < copies.size(); i++) {
+            queued &= submit(targets.get(i), copies.get(i));
+        }
+        return queued;
+    }
+
+    /**
+     * Offers a message (without channel) to the delivery queues of all targets without waiting, even with a
+     * single target. Used by tasks on the delivery service's scheduler, which must not block.
+     *
+     * @return {@code true} if the message has been queued for all targets.
+     */
+    public boolean offer(SlackMessage message) {
+        setThreadKey(message);
+        final List<SlackMessage> copies = message.forChannels(channels);
+        boolean queued = true;
+        for (int i = 0; i < copies.size(); i++) {
+            queued &= targets.get(i).queue.offer(copies.get(i));
+        }
+        return queued;
+    }
+
+    /**
+     * Submits a message to the given channel instead of the channels of the targets, once per webhook.
+     *
+     * @return {@code true} if the message has been queued for all webhooks.
+     */
+    public boolean submit(SlackMessage message, String channel) throws InterruptedException {
+        setThreadKey(message);
+        final List<String> channels = Collections.singletonList(channel);
+        final Set<String> webhookUrls = new HashSet<>();
+        boolean queued = true;
+        for (Target target : targets) {
+            if (webhookUrls.add(target.target.getWebhookUrl())) {
+                queued &= submit(target, message.forChannels(channels).get(0));
+            }
+        }
+        return queued;
+    }
+
+    private boolean submit(Target target, SlackMessage message) throws InterruptedException {
+        return targets.size() == 1 ? target.queue.submit(message) : target.queue.offer(message);
+    }
+
+    private void setThreadKey(SlackMessage message) {
+        if (message.getThreadKey() == null) {
+            message.setThreadKey(threadKey);
+        }
+    }
+
+    public void stop(long timeout, TimeUnit unit) {
+        for (Target target : targets) {
+            try {
+                target.queue.stop(timeout, unit);
+            } finally {
+                // The spool's directory is locked until it's closed, so a restarted output couldn't open it.
+                if (target.spool != null) {
+                    target.spoolReplayer.stop();
+                    try {
+                        target.spool.close();
+                    } catch (IOException e) {
+                        LOG.warn("Could not close spool.", e);
+                    }
+                }
+            }
+        }
+    }
+
+    public static class Target {
+        private final SlackTarget target;
+        private final SlackDeliveryQueue queue;
+        private final SlackSpool spool;
+        private final SpoolReplayer spoolReplayer;
+
+        /**
+         * @param spool         the spool of the target's queue or {@code null}.
+         * @param spoolReplayer the replayer of the spool or {@code null}.
+         */
+        public Target(SlackTarget target, SlackDeliveryQueue queue, SlackSpool spool, SpoolReplayer spoolReplayer) {
+            this.target = target;
+            this.queue = queue;
+            this.spool = spool;
+            this.spoolReplayer = spoolReplayer;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackText;
+import org.graylog2.plugins.slack.template.MessageTemplate;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accumulates the messages of a stream for up to a maximum number of messages or a maximum delay
+ * and renders them as one {@link SlackMessage}. The messages share the text size limit, longer ones are
+ * truncated. With a custom message, every message of a batch is rendered as one line of the text; the lines
+ * which don't fit into the text are summarized as "+N more".
+ * <p>
+ * The delay counts from the first message of a batch: every batch schedules its own flush when it's started.
+ * Flushes run on a shared scheduler, so a batch flushed because of its delay is offered to the delivery queues
+ * without waiting for room; a batch which is full waits, like a single message.
+ */
+public class SlackMessageBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SlackMessageBatcher.class);
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(DateTimeZone.UTC);
+
+    // Slack doesn't render more than 100 attachments per message.
+    public static final int MAX_ATTACHMENTS = 100;
+    private static final int MIN_MESSAGE_BYTES = 128;
+    // Room for the "+N more" line.
+    private static final int MORE_LINE_BYTES = 32;
+
+    public enum Mode {
+        ATTACHMENTS, DIGEST
+    }
+
+    private final Stream stream;
+    private final SlackFanOut fanOut;
+    private final Mode mode;
+    private final int maxMessages;
+    private final long maxDelayMillis;
+    private final String color;
+    private final MessageTemplate customMessage;
+    private final int maxTextBytes;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this. The number of the current batch tells a scheduled flush whether its batch is still open.
+    private List<Message> batch;
+    private long batchNumber;
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean stopped;
+
+    public SlackMessageBatcher(Stream stream,
+                               SlackFanOut fanOut,
+                               Mode mode,
+                               int maxMessages,
+                               long maxDelayMillis,
+                               String color,
+                               MessageTemplate customMessage,
+                               int maxTextBytes,
+                               ScheduledExecutorService scheduler) {
+        this.stream = stream;
+        this.fanOut = fanOut;
+        this.mode = mode;
+        this.maxMessages = mode == Mode.ATTACHMENTS ? Math.min(maxMessages, MAX_ATTACHMENTS) : maxMessages;
+        this.maxDelayMillis = Math.max(1L, maxDelayMillis);
+        this.color = color;
+        this.customMessage = customMessage;
+        this.maxTextBytes = maxTextBytes;
+        this.batch = Lists.newArrayListWithCapacity(this.maxMessages);
+        this.scheduler = scheduler;
+    }
+
+    public void add(Message message) throws InterruptedException {
+        final List<Message> full;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                scheduleFlush(batchNumber);
+            }
+            batch.add(message);
+            if (batch.size() < maxMessages) {
+                return;
+            }
+            full = takeBatch();
+        }
+
+        fanOut.submit(render(full));
+    }
+
+    public void flush() throws InterruptedException {
+        final List<Message> messages;
+        synchronized (this) {
+            messages = takeBatch();
+        }
+
+        if (!messages.isEmpty()) {
+            fanOut.submit(render(messages));
+        }
+    }
+
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called while holding the lock.
+    private void scheduleFlush(final long number) {
+        if (stopped) {
+            // The batch is flushed by stop().
+            return;
+        }
+        try {
+            scheduledFlush = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushBatch(number);
+                    } catch (RuntimeException e) {
+                        LOG.error("Could not flush batch of Slack messages.", e);
+                    }
+                }
+            }, maxDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The delivery service has been shut down.
+            LOG.debug("Scheduler has been shut down, not scheduling flush.");
+        }
+    }
+
+    /**
+     * Flushes the batch with the given number, unless it has already been flushed because it was full.
+     */
+    private void flushBatch(long number) {
+        final List<Message> messages;
+        synchronized (this) {
+            if (number != batchNumber || batch.isEmpty()) {
+                return;
+            }
+            messages = takeBatch();
+        }
+
+        fanOut.offer(render(messages));
+    }
+
+    private List<Message> takeBatch() {
+        final List<Message> messages = batch;
+        batch = Lists.newArrayListWithCapacity(maxMessages);
+        batchNumber++;
+        return messages;
+    }
+
+    SlackMessage render(List<Message> messages) {
+        final String title = "*" + messages.size() + (messages.size() == 1 ? " new message" : " new messages")
+                + " in Graylog stream _" + stream.getTitle() + "_*:";
+        final SlackMessage slackMessage = new SlackMessage(color, title,
+                customMessage == null ? null : renderCustomMessages(messages), null);
+
+        // Every message gets an equal share of the size limit.
+        final int maxMessageBytes = Math.max(MIN_MESSAGE_BYTES, maxTextBytes / messages.size());
+        if (mode == Mode.DIGEST) {
+            final StringBuilder digest = new StringBuilder();
+            for (Message message : messages) {
+                if (digest.length() > 0) {
+                    digest.append('\n');
+                }
+                digest.append('`').append(message.getSource()).append("` ").append(SlackText.truncate(message.getMessage(), maxMessageBytes));
+            }
+            slackMessage.addAttachment(new SlackMessage.Attachment(title, digest.toString(), null, color, null));
+        } else {
+            for (Message message : messages) {
+                final String text = SlackText.truncate(message.getMessage(), maxMessageBytes);
+                final List<SlackMessage.AttachmentField> fields = ImmutableList.of(
+                        new SlackMessage.AttachmentField("Source", message.getSource(), true),
+                        new SlackMessage.AttachmentField("Timestamp", formatTimestamp(message), true)
+                );
+                slackMessage.addAttachment(new SlackMessage.Attachment(text, text, null, color, fields));
+            }
+        }
+
+        return slackMessage;
+    }
+
+    private String renderCustomMessages(List<Message> messages) {
+        final int maxMessageBytes = Math.max(MIN_MESSAGE_BYTES, maxTextBytes / messages.size());
+        final StringBuilder text = new StringBuilder();
+        int textBytes = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            final String line = SlackText.truncate(customMessage.render(stream, messages.get(i)), maxMessageBytes);
+            final int lineBytes = SlackText.utf8Length(line) + (i > 0 ? 1 : 0);
+            final int reserved = i < messages.size() - 1 ? MORE_LINE_BYTES : 0;
+            if (i > 0 && textBytes + lineBytes + reserved > maxTextBytes) {
+                text.append("\n+").append(messages.size() - i).append(" more");
+                break;
+            }
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(line);
+            textBytes += lineBytes;
+        }
+
+        return SlackText.truncate(text.toString(), maxTextBytes);
+    }
+
+    private static String formatTimestamp(Message message) {
+        return message.getTimestamp() == null ? null : TIMESTAMP_FORMAT.print(message.getTimestamp());
+    }
+}
@@ -1,11 +1,26 @@
 package org.graylog2.plugins.slack.output;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.BooleanField;
+import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
+import org.graylog2.plugin.configuration.fields.NumberField;
+import org.graylog2.plugin.configuration.fields.TextField;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
 import org.graylog2.plugin.inputs.annotations.FactoryClass;
 import org.graylog2.plugin.outputs.MessageOutput;
@@ -13,28 +28,102 @@ import org.graylog2.plugin.outputs.MessageOutputConfigurationException;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugins.slack.SlackClient;
 import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackMetrics;
 import org.graylog2.plugins.slack.SlackPluginBase;
+import org.graylog2.plugins.slack.SlackTarget;
+import org.graylog2.plugins.slack.SlackText;
+import org.graylog2.plugins.slack.cluster.ClusterRateLimiter;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryQueue;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.plugins.slack.ratelimit.AdaptiveConcurrencyLimit;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.ratelimit.SlackRateLimiters;
+import org.graylog2.plugins.slack.routing.RoutingTable;
+import org.graylog2.plugins.slack.spool.SlackSpool;
+import org.graylog2.plugins.slack.spool.SpoolReplayer;
+import org.graylog2.plugins.slack.template.MessageTemplate;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
 
 public class SlackMessageOutput extends SlackPluginBase implements MessageOutput {
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private static final int DEFAULT_QUEUE_WORKERS = 2;
+    private static final int DEFAULT_QUEUE_MIN_WORKERS = 0;
+    private static final int DEFAULT_QUEUE_WEIGHT = 1;
+    private static final long DRAIN_TIMEOUT_SECONDS = 10L;
+    private static final int DEFAULT_BATCH_SIZE = 1;
+    private static final int DEFAULT_BATCH_INTERVAL = 1000;
+    private static final int DEFAULT_DEDUP_WINDOW = 0;
+    private static final int DEFAULT_DEDUP_MAX_KEYS = 100000;
+    private static final int DEFAULT_SAMPLING_VALUE = 10;
+    private static final int DEFAULT_SAMPLING_SUMMARY_INTERVAL = 300;
+    private static final int DEFAULT_DIGEST_INTERVAL = 0;
+    private static final int DEFAULT_DIGEST_TOP_K = 5;
+    private static final int DEFAULT_SPOOL_MAX_SIZE = 256;
+    private static final int DEFAULT_SPOOL_MAX_AGE = 24;
+    private static final int MIN_TEXT_BYTES = 256;
+    // Room for the "(i/n) " label of split messages.
+    private static final int PART_LABEL_BYTES = 16;
+    private static final int DEFAULT_MAX_SPLIT_PARTS = 5;
+
     private AtomicBoolean running = new AtomicBoolean(false);
 
+    private final SlackDeliveryService deliveryService;
+    // Null if the rate limit isn't shared across the cluster or the output hasn't been created by the injector.
+    private final ClusterRateLimiter clusterRateLimiter;
+    // The webhooks registered with the cluster rate limiter, once per target.
+    private final List<String> clusterRateLimitKeys = new ArrayList<>();
     private final Configuration configuration;
     private final Stream stream;
 
-    private final SlackClient client;
+    private final SlackMetrics metrics;
+    private final MessageTemplate customMessage;
+    private final RoutingTable routingTable;
+    private final Timer writeTime;
+    private final Meter sampledOut;
+    private final SlackFanOut fanOut;
+    private final SlackMessageBatcher batcher;
+    private final MessageDeduplicator deduplicator;
+    private final MessageSampler sampler;
+    private final MessageDigest digest;
+    private final int maxTextBytes;
+    private final SlackText.OversizePolicy oversizePolicy;
+    private final int maxSplitParts;
+
+    public SlackMessageOutput(Stream stream, Configuration configuration) throws MessageOutputConfigurationException {
+        this(new MetricRegistry(), SlackDeliveryService.defaultInstance(), null, stream, configuration);
+    }
 
     @Inject
-    public SlackMessageOutput(@Assisted Stream stream, @Assisted Configuration configuration) throws MessageOutputConfigurationException {
+    public SlackMessageOutput(MetricRegistry metricRegistry,
+                              SlackDeliveryService deliveryService,
+                              Provider<ClusterRateLimiter> clusterRateLimiter,
+                              @Assisted Stream stream,
+                              @Assisted Configuration configuration) throws MessageOutputConfigurationException {
+        this.deliveryService = deliveryService;
+        // Only resolved if needed, it renews leases in MongoDB.
+        this.clusterRateLimiter = clusterRateLimiter != null && configuration.getBoolean(CK_CLUSTER_RATE_LIMIT)
+                ? clusterRateLimiter.get()
+                : null;
         this.configuration = configuration;
         this.stream = stream;
+        this.metrics = new SlackMetrics(metricRegistry,
+                MetricRegistry.name(SlackMessageOutput.class, stream == null ? "unknown" : stream.getId()));
+        this.writeTime = metricRegistry.timer(metrics.name("writeTime"));
+        this.sampledOut = metricRegistry.meter(metrics.name("sampledOut"));
 
         // Check configuration.
         try {
@@ -43,7 +132,112 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
             throw new MessageOutputConfigurationException("Missing configuration: " + e.getMessage());
         }
 
-        this.client = new SlackClient(configuration);
+        this.maxTextBytes = Math.min(SlackText.MAX_TEXT_BYTES,
+                Math.max(MIN_TEXT_BYTES, configuration.getInt(CK_MAX_TEXT_SIZE, SlackText.DEFAULT_MAX_TEXT_BYTES)));
+        this.oversizePolicy = oversizePolicy(configuration);
+        this.maxSplitParts = Math.max(1, configuration.getInt(CK_MAX_SPLIT_PARTS, DEFAULT_MAX_SPLIT_PARTS));
+
+        this.customMessage = configuration.stringIsSet(CK_CUSTOM_MESSAGE)
+                ? MessageTemplate.compile(configuration.getString(CK_CUSTOM_MESSAGE))
+                : null;
+
+        try {
+            this.routingTable = RoutingTable.compile(configuration.getString(CK_ROUTING_RULES));
+        } catch (IllegalArgumentException e) {
+            throw new MessageOutputConfigurationException("Invalid routing rules: " + e.getMessage());
+        }
+
+        final List<SlackTarget> targets;
+        try {
+            targets = SlackTarget.parse(configuration);
+        } catch (ConfigurationException e) {
+            throw new MessageOutputConfigurationException("Invalid configuration: " + e.getMessage());
+        }
+        final List<SlackFanOut.Target> fanOutTargets = new ArrayList<>(targets.size());
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                fanOutTargets.add(createTarget(targets.get(i), targets.size() == 1 ? metrics : new SlackMetrics(metricRegistry, metrics.name("targets", String.valueOf(i)))));
+            }
+        } catch (MessageOutputConfigurationException | RuntimeException e) {
+            // Releases the spools and queues of the targets created so far.
+            try {
+                new SlackFanOut(fanOutTargets, null).stop(0L, TimeUnit.SECONDS);
+            } finally {
+                unregisterFromCluster();
+            }
+            throw e;
+        }
+        this.fanOut = new SlackFanOut(fanOutTargets, stream == null ? null : stream.getId());
+
+        final int batchSize = configuration.getInt(CK_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        if (batchSize > 1) {
+            this.batcher = new SlackMessageBatcher(
+                    stream,
+                    fanOut,
+                    batchMode(configuration),
+                    batchSize,
+                    configuration.getInt(CK_BATCH_INTERVAL, DEFAULT_BATCH_INTERVAL),
+                    configuration.getString(CK_COLOR),
+                    customMessage,
+                    maxTextBytes,
+                    deliveryService.getScheduler()
+            );
+        } else {
+            this.batcher = null;
+        }
+
+        final int dedupWindow = configuration.getInt(CK_DEDUP_WINDOW, DEFAULT_DEDUP_WINDOW);
+        if (dedupWindow > 0) {
+            this.deduplicator = new MessageDeduplicator(
+                    dedupWindow,
+                    Splitter.on(',').trimResults().omitEmptyStrings().splitToList(configuration.getString(CK_DEDUP_FIELDS, "")),
+                    configuration.getInt(CK_DEDUP_MAX_KEYS, DEFAULT_DEDUP_MAX_KEYS),
+                    deliveryService.getScheduler(),
+                    new MessageDeduplicator.SummaryListener() {
+                        @Override
+                        public void onRepeated(String source, String message, long occurrences, long windowSeconds) {
+                            sendRepeatSummary(source, message, occurrences, windowSeconds);
+                        }
+                    }
+            );
+        } else {
+            this.deduplicator = null;
+        }
+
+        final MessageSampler.Mode samplingMode = samplingMode(configuration);
+        if (samplingMode != MessageSampler.Mode.NONE) {
+            this.sampler = new MessageSampler(
+                    samplingMode,
+                    configuration.getInt(CK_SAMPLING_VALUE, DEFAULT_SAMPLING_VALUE),
+                    configuration.getInt(CK_SAMPLING_SUMMARY_INTERVAL, DEFAULT_SAMPLING_SUMMARY_INTERVAL),
+                    deliveryService.getScheduler(),
+                    new MessageSampler.SummaryListener() {
+                        @Override
+                        public void onSkipped(long skipped, long intervalSeconds) {
+                            sendSamplingSummary(skipped, intervalSeconds);
+                        }
+                    }
+            );
+        } else {
+            this.sampler = null;
+        }
+
+        final int digestInterval = configuration.getInt(CK_DIGEST_INTERVAL, DEFAULT_DIGEST_INTERVAL);
+        if (digestInterval > 0) {
+            this.digest = new MessageDigest(
+                    TimeUnit.MINUTES.toSeconds(digestInterval),
+                    configuration.getInt(CK_DIGEST_TOP_K, DEFAULT_DIGEST_TOP_K),
+                    deliveryService.getScheduler(),
+                    new MessageDigest.DigestListener() {
+                        @Override
+                        public void onDigest(MessageDigest.Summary summary) {
+                            sendDigest(summary);
+                        }
+                    }
+            );
+        } else {
+            this.digest = null;
+        }
 
         running.set(true);
     }
@@ -51,6 +245,117 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
     @Override
     public void stop() {
         running.set(false);
+        if (digest != null) {
+            // Posts the digest of the messages since the last one.
+            digest.stop();
+        }
+        if (sampler != null) {
+            sampler.stop();
+        }
+        if (deduplicator != null) {
+            deduplicator.stop();
+        }
+        if (batcher != null) {
+            batcher.stop();
+        }
+        try {
+            fanOut.stop(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } finally {
+            unregisterFromCluster();
+        }
+    }
+
+    private void unregisterFromCluster() {
+        for (String rateLimitKey : clusterRateLimitKeys) {
+            clusterRateLimiter.unregister(rateLimitKey);
+        }
+        clusterRateLimitKeys.clear();
+    }
+
+    private SlackFanOut.Target createTarget(SlackTarget target, final SlackMetrics targetMetrics) throws MessageOutputConfigurationException {
+        final SlackClient client = new SlackClient(configuration, target, targetMetrics);
+        final int maxConcurrency = configuration.getInt(CK_QUEUE_WORKERS, DEFAULT_QUEUE_WORKERS);
+        final int minConcurrency = configuration.getInt(CK_QUEUE_MIN_WORKERS, DEFAULT_QUEUE_MIN_WORKERS);
+        final AdaptiveConcurrencyLimit concurrencyLimit;
+        if (minConcurrency > 0 && minConcurrency < maxConcurrency) {
+            concurrencyLimit = SlackRateLimiters.concurrencyLimitForWebhook(client.getRateLimitKey(), minConcurrency, maxConcurrency);
+            targetMetrics.registerGauge("concurrencyLimit", new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return concurrencyLimit.getLimit();
+                }
+            });
+        } else {
+            concurrencyLimit = null;
+        }
+        final Gauge<Integer> circuitState = client.circuitStateGauge();
+        if (circuitState != null) {
+            // Removed with the other gauges of the target when its queue is stopped.
+            targetMetrics.registerGauge("circuitState", circuitState);
+        }
+        final RateLimitedSender sender = RateLimitedSender.create(client, configuration, concurrencyLimit);
+        if (clusterRateLimiter != null) {
+            clusterRateLimiter.register(client.getRateLimitKey(), sender.getBucket());
+            clusterRateLimitKeys.add(client.getRateLimitKey());
+        }
+
+        final SlackSpool spool;
+        final SpoolReplayer spoolReplayer;
+        if (configuration.stringIsSet(CK_SPOOL_DIRECTORY)) {
+            try {
+                spool = new SlackSpool(
+                        spoolDirectory(target),
+                        configuration.getInt(CK_SPOOL_MAX_SIZE, DEFAULT_SPOOL_MAX_SIZE) * 1024L * 1024L,
+                        configuration.getInt(CK_SPOOL_MAX_AGE, DEFAULT_SPOOL_MAX_AGE),
+                        TimeUnit.HOURS);
+            } catch (IOException e) {
+                throw new MessageOutputConfigurationException("Could not open spool: " + e.getMessage());
+            }
+            targetMetrics.registerGauge("spoolSize", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return spool.sizeInBytes();
+                }
+            });
+            spoolReplayer = new SpoolReplayer(spool, sender, deliveryService, targetMetrics);
+        } else {
+            spool = null;
+            spoolReplayer = null;
+        }
+
+        final SlackDeliveryQueue queue = new SlackDeliveryQueue(
+                deliveryService,
+                sender,
+                targetMetrics,
+                configuration.getInt(CK_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY),
+                maxConcurrency,
+                priority(configuration),
+                configuration.getInt(CK_QUEUE_WEIGHT, DEFAULT_QUEUE_WEIGHT),
+                overflowPolicy(configuration),
+                spool,
+                TimeUnit.SECONDS.toMillis(configuration.getInt(CK_DELIVERY_DEADLINE, RateLimitedSender.DEFAULT_DELIVERY_DEADLINE))
+        );
+
+        return new SlackFanOut.Target(target, queue, spool, spoolReplayer);
+    }
+
+    /**
+     * Every output needs its own spool directory, so spools of different streams (and targets) don't share one.
+     */
+    private Path spoolDirectory(SlackTarget target) {
+        final String streamId = stream == null ? "unknown" : stream.getId();
+        final Path directory = Paths.get(configuration.getString(CK_SPOOL_DIRECTORY));
+        if (SlackClient.endpoint(configuration).indexOf(',') < 0 && configuration.getString(CK_CHANNEL).indexOf(',') < 0) {
+            return directory.resolve(streamId);
+        }
+
+        final String targetId = Hashing.murmur3_32().newHasher()
+                .putString(target.getWebhookUrl(), Charsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(target.getChannel(), Charsets.UTF_8)
+                .hash()
+                .toString();
+        return directory.resolve(streamId + "-" + targetId);
     }
 
     @Override
@@ -60,24 +365,135 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
 
     @Override
     public void write(Message msg) throws Exception {
-        SlackMessage slackMessage = new SlackMessage(
-                configuration.getString(CK_COLOR),
-                buildMessage(stream, msg),
-                configuration.getString(CK_CUSTOM_MESSAGE),
-                configuration.getString(CK_CHANNEL)
-        );
+        try (final Timer.Context ignored = writeTime.time()) {
+            if (digest != null) {
+                // Messages are only counted, the digest is posted periodically.
+                digest.add(msg);
+                return;
+            }
 
-        try {
-            client.send(slackMessage);
-        } catch (SlackClient.SlackClientException e) {
-            throw new RuntimeException("Could not send message to Slack.", e);
+            if (sampler != null && !sampler.sample()) {
+                sampledOut.mark();
+                return;
+            }
+
+            if (deduplicator != null && !deduplicator.shouldSend(msg)) {
+                return;
+            }
+
+            final RoutingTable.Route route = routingTable.isEmpty() ? null : routingTable.route(msg);
+            if (route != null) {
+                // Routed messages aren't batched, a batch only has one channel and color.
+                for (SlackMessage slackMessage : createMessages(msg, route.getColor())) {
+                    fanOut.submit(slackMessage, route.getChannel());
+                }
+                return;
+            }
+
+            if (batcher != null) {
+                batcher.add(msg);
+                return;
+            }
+
+            // The channel is filled in for every target by the fan-out.
+            for (SlackMessage slackMessage : createMessages(msg, null)) {
+                fanOut.submit(slackMessage);
+            }
         }
     }
 
+    /**
+     * Renders a message within the size limit: truncated, or split into at most {@link #maxSplitParts} numbered
+     * posts, the last of which is truncated if the message doesn't fit into them.
+     */
+    List<SlackMessage> createMessages(Message msg, String routeColor) {
+        final String color = routeColor == null ? configuration.getString(CK_COLOR) : routeColor;
+        final String text = buildMessage(stream, msg);
+        final String custom = customMessage == null ? null : customMessage.render(stream, msg);
+        if (oversizePolicy == SlackText.OversizePolicy.TRUNCATE) {
+            return Collections.singletonList(new SlackMessage(color, text, SlackText.truncate(custom, maxTextBytes), null));
+        }
+
+        // Only one of the texts is sent, the custom message takes precedence.
+        final int partBytes = maxTextBytes - PART_LABEL_BYTES;
+        final List<String> parts = SlackText.split(custom == null ? text : SlackText.truncate(custom, maxSplitParts * partBytes), partBytes);
+        if (parts.size() == 1) {
+            return Collections.singletonList(new SlackMessage(color, text, custom, null));
+        }
+
+        // Breaking at line breaks may need more parts than the size alone.
+        final int count = Math.min(parts.size(), maxSplitParts);
+        final List<SlackMessage> messages = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            final String content = i == count - 1 && count < parts.size()
+                    ? SlackText.truncate(parts.get(i) + parts.get(i + 1), partBytes)
+                    : parts.get(i);
+            final String part = "(" + (i + 1) + "/" + count + ") " + content;
+            messages.add(custom == null ? new SlackMessage(color, part, null, null) : new SlackMessage(color, text, part, null));
+        }
+        return messages;
+    }
+
+    private void sendRepeatSummary(String source, String message, long occurrences, long windowSeconds) {
+        final String text = "*Repeated message in Graylog stream _" + (stream == null ? "" : stream.getTitle()) + "_* "
+                + "(×" + occurrences + " occurrences in the last " + windowSeconds + "s):\n"
+                + "> " + message + " (" + source + ")";
+
+        submitNotice(text);
+    }
+
+    private void sendSamplingSummary(long skipped, long intervalSeconds) {
+        submitNotice("*Sampling in Graylog stream _" + (stream == null ? "" : stream.getTitle()) + "_*: "
+                + skipped + " message(s) skipped in the last " + intervalSeconds + "s");
+    }
+
+    private void sendDigest(MessageDigest.Summary summary) {
+        final StringBuilder text = new StringBuilder()
+                .append("*Digest of Graylog stream _").append(stream == null ? "" : stream.getTitle()).append("_*: ")
+                .append(summary.getCount()).append(" message(s) in the last ")
+                .append((summary.getIntervalSeconds() + 59L) / 60L).append(" minute(s)\n");
+
+        text.append("*Levels:* ");
+        boolean first = true;
+        for (Map.Entry<String, Long> level : summary.getLevelCounts().entrySet()) {
+            text.append(first ? "" : ", ").append(level.getKey()).append(": ").append(level.getValue());
+            first = false;
+        }
+
+        text.append("\n*Top sources:* ");
+        first = true;
+        for (SpaceSaving.Entry<String> source : summary.getTopSources()) {
+            text.append(first ? "" : ", ").append('`').append(source.getItem()).append("` (").append(formatCount(source)).append(')');
+            first = false;
+        }
+
+        text.append("\n*Top messages:*");
+        for (SpaceSaving.Entry<String> message : summary.getTopMessages()) {
+            text.append("\n> ").append(formatCount(message)).append("× ").append(message.getItem().replace('\n', ' '));
+        }
+
+        submitNotice(SlackText.truncate(text.toString(), maxTextBytes));
+    }
+
+    // Counts which may be overestimated are marked as approximate.
+    private static String formatCount(SpaceSaving.Entry<String> entry) {
+        return (entry.getError() > 0L ? "~" : "") + entry.getCount();
+    }
+
+    // Notices are sent from the delivery service's scheduler, which must not wait for room in the queues.
+    private void submitNotice(String text) {
+        fanOut.offer(new SlackMessage(configuration.getString(CK_COLOR), text, null, null));
+    }
+
     public String buildMessage(Stream stream, Message msg) {
         String titleLink = titleLink = "_" + stream.getTitle() + "_";
+        final String header = "*New message in Graylog stream " + titleLink + "*:\n" + "> ";
 
-        return "" + "*New message in Graylog stream " + titleLink + "*:\n" + "> " + msg.getMessage();
+        // Only the part of the message which fits is copied, split messages are cut up later.
+        final int maxBytes = oversizePolicy == SlackText.OversizePolicy.SPLIT
+                ? maxSplitParts * (maxTextBytes - PART_LABEL_BYTES)
+                : maxTextBytes;
+        return header + SlackText.truncate(msg.getMessage(), maxBytes - SlackText.utf8Length(header));
     }
 
     @Override
@@ -91,6 +507,71 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
         return configuration.getSource();
     }
 
+    private static SlackMessageBatcher.Mode batchMode(Configuration configuration) {
+        final String mode = configuration.getString(CK_BATCH_MODE);
+        if (isNullOrEmpty(mode)) {
+            return SlackMessageBatcher.Mode.ATTACHMENTS;
+        }
+
+        try {
+            return SlackMessageBatcher.Mode.valueOf(mode.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return SlackMessageBatcher.Mode.ATTACHMENTS;
+        }
+    }
+
+    private static MessageSampler.Mode samplingMode(Configuration configuration) {
+        final String mode = configuration.getString(CK_SAMPLING_MODE);
+        if (isNullOrEmpty(mode)) {
+            return MessageSampler.Mode.NONE;
+        }
+
+        try {
+            return MessageSampler.Mode.valueOf(mode.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return MessageSampler.Mode.NONE;
+        }
+    }
+
+    private static SlackText.OversizePolicy oversizePolicy(Configuration configuration) {
+        final String policy = configuration.getString(CK_OVERSIZE_POLICY);
+        if (isNullOrEmpty(policy)) {
+            return SlackText.OversizePolicy.TRUNCATE;
+        }
+
+        try {
+            return SlackText.OversizePolicy.valueOf(policy.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return SlackText.OversizePolicy.TRUNCATE;
+        }
+    }
+
+    private static SlackDeliveryService.Priority priority(Configuration configuration) {
+        final String priority = configuration.getString(CK_QUEUE_PRIORITY);
+        if (isNullOrEmpty(priority)) {
+            return SlackDeliveryService.Priority.NORMAL;
+        }
+
+        try {
+            return SlackDeliveryService.Priority.valueOf(priority.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return SlackDeliveryService.Priority.NORMAL;
+        }
+    }
+
+    private static SlackDeliveryQueue.OverflowPolicy overflowPolicy(Configuration configuration) {
+        final String policy = configuration.getString(CK_QUEUE_OVERFLOW_POLICY);
+        if (isNullOrEmpty(policy)) {
+            return SlackDeliveryQueue.OverflowPolicy.BLOCK;
+        }
+
+        try {
+            return SlackDeliveryQueue.OverflowPolicy.valueOf(policy.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return SlackDeliveryQueue.OverflowPolicy.BLOCK;
+        }
+    }
+
     @FactoryClass
     public interface Factory extends MessageOutput.Factory<SlackMessageOutput> {
         @Override
@@ -107,7 +588,155 @@ public class SlackMessageOutput extends SlackPluginBase implements MessageOutput
     public static class Config extends MessageOutput.Config {
         @Override
         public ConfigurationRequest getRequestedConfiguration() {
-            return configuration();
+            final ConfigurationRequest configurationRequest = configuration();
+
+            configurationRequest.addField(new BooleanField(
+                    CK_CLUSTER_RATE_LIMIT, "Share rate limit across cluster", false,
+                    "Split the webhook's rate limit between the Graylog nodes sending to it, coordinated through MongoDB")
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_QUEUE_CAPACITY, "Queue capacity", DEFAULT_QUEUE_CAPACITY,
+                    "Maximum number of messages waiting to be sent to Slack",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_QUEUE_WORKERS, "Concurrent requests", DEFAULT_QUEUE_WORKERS,
+                    "Maximum number of concurrent requests to the webhook. Messages are sent by a pool of threads shared by all Slack outputs",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_QUEUE_MIN_WORKERS, "Minimum concurrent requests", DEFAULT_QUEUE_MIN_WORKERS,
+                    "If set below the concurrent requests, the number of concurrent requests adapts to the webhook's latency and errors between the two (0 keeps it fixed)",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new DropdownField(
+                    CK_QUEUE_PRIORITY, "Priority", SlackDeliveryService.Priority.NORMAL.name(),
+                    ImmutableMap.of(
+                            SlackDeliveryService.Priority.HIGH.name(), "High (like alerts)",
+                            SlackDeliveryService.Priority.NORMAL.name(), "Normal",
+                            SlackDeliveryService.Priority.LOW.name(), "Low"),
+                    "Messages of a higher priority are sent first when several outputs and alerts send to the same webhook",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_QUEUE_WEIGHT, "Fair share weight", DEFAULT_QUEUE_WEIGHT,
+                    "Share of the webhook's rate limit this output gets relative to other outputs of the same priority sending to the same webhook",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new DropdownField(
+                    CK_QUEUE_OVERFLOW_POLICY, "Queue overflow policy", SlackDeliveryQueue.OverflowPolicy.BLOCK.name(),
+                    ImmutableMap.of(
+                            SlackDeliveryQueue.OverflowPolicy.BLOCK.name(), "Block until there is space",
+                            SlackDeliveryQueue.OverflowPolicy.DROP_OLDEST.name(), "Drop oldest queued message",
+                            SlackDeliveryQueue.OverflowPolicy.DROP_NEWEST.name(), "Drop new message"),
+                    "What to do with new messages when the queue is full; with several targets, a full queue drops (or spools) instead of blocking the others",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_BATCH_SIZE, "Batch size", DEFAULT_BATCH_SIZE,
+                    "Maximum number of messages combined into one Slack post (1 disables batching)",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_BATCH_INTERVAL, "Batch interval (ms)", DEFAULT_BATCH_INTERVAL,
+                    "Maximum time in milliseconds a message waits for its batch to fill up",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new DropdownField(
+                    CK_BATCH_MODE, "Batch format", SlackMessageBatcher.Mode.ATTACHMENTS.name(),
+                    ImmutableMap.of(
+                            SlackMessageBatcher.Mode.ATTACHMENTS.name(), "One attachment per message",
+                            SlackMessageBatcher.Mode.DIGEST.name(), "Compact digest"),
+                    "How batched messages are rendered",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_DEDUP_WINDOW, "Deduplication window (s)", DEFAULT_DEDUP_WINDOW,
+                    "Repeats of a message within this many seconds are only counted and summarized at the end of the window (0 disables deduplication)",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new TextField(
+                    CK_DEDUP_FIELDS, "Deduplication fields", "",
+                    "Comma-separated list of fields which must be equal, in addition to message and source, for messages to count as repeats",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_DEDUP_MAX_KEYS, "Deduplication capacity", DEFAULT_DEDUP_MAX_KEYS,
+                    "Maximum number of distinct messages tracked for deduplication",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new TextField(
+                    CK_ROUTING_RULES, "Routing rules", "",
+                    "One rule per line like \"level <= 3 -> #alerts danger\" or \"source =~ ^db- && level < 5 -> #dba\". "
+                            + "The channel (and color) of the first matching rule replace the configured ones",
+                    ConfigurationField.Optional.OPTIONAL,
+                    TextField.Attribute.TEXTAREA)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_MAX_TEXT_SIZE, "Max. text size (bytes)", SlackText.DEFAULT_MAX_TEXT_BYTES,
+                    "Maximum UTF-8 size of the text of a Slack message (at most " + SlackText.MAX_TEXT_BYTES + ")",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new DropdownField(
+                    CK_OVERSIZE_POLICY, "Oversized messages", SlackText.OversizePolicy.TRUNCATE.name(),
+                    ImmutableMap.of(
+                            SlackText.OversizePolicy.TRUNCATE.name(), "Truncate",
+                            SlackText.OversizePolicy.SPLIT.name(), "Split into several posts"),
+                    "What to do with messages larger than the max. text size",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_MAX_SPLIT_PARTS, "Max. split posts", DEFAULT_MAX_SPLIT_PARTS,
+                    "Maximum number of posts an oversized message is split into; the rest of the message is truncated",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new DropdownField(
+                    CK_SAMPLING_MODE, "Sampling", MessageSampler.Mode.NONE.name(),
+                    ImmutableMap.of(
+                            MessageSampler.Mode.NONE.name(), "Send all messages",
+                            MessageSampler.Mode.EVERY_NTH.name(), "Send every Nth message",
+                            MessageSampler.Mode.PERCENTAGE.name(), "Send N percent of messages",
+                            MessageSampler.Mode.RATE.name(), "Send at most N messages per minute"),
+                    "Which messages of the stream are sent to Slack",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_SAMPLING_VALUE, "Sampling value (N)", DEFAULT_SAMPLING_VALUE,
+                    "The N of the sampling mode",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_SAMPLING_SUMMARY_INTERVAL, "Sampling summary interval (s)", DEFAULT_SAMPLING_SUMMARY_INTERVAL,
+                    "Interval in seconds of the summary of skipped messages (0 disables the summary)",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_DIGEST_INTERVAL, "Digest interval (min)", DEFAULT_DIGEST_INTERVAL,
+                    "Instead of sending every message, post a digest of the stream every N minutes: the number of messages per level and the most frequent sources and messages (0 disables the digest)",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_DIGEST_TOP_K, "Digest size", DEFAULT_DIGEST_TOP_K,
+                    "Number of the most frequent sources and messages in the digest",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new TextField(
+                    CK_SPOOL_DIRECTORY, "Spool directory", "",
+                    "Directory in which messages are kept while Slack is unavailable, in a subdirectory per stream (empty disables spooling)",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_SPOOL_MAX_SIZE, "Spool size (MB)", DEFAULT_SPOOL_MAX_SIZE,
+                    "Maximum size of the spool; the oldest messages are discarded when it's full",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+            configurationRequest.addField(new NumberField(
+                    CK_SPOOL_MAX_AGE, "Spool retention (hours)", DEFAULT_SPOOL_MAX_AGE,
+                    "Spooled messages older than this aren't sent anymore",
+                    ConfigurationField.Optional.OPTIONAL)
+            );
+
+            return configurationRequest;
         }
     }
 
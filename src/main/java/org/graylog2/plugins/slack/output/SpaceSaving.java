@@ -0,0 +1,120 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds the most frequent items of a stream in constant memory with the Space-Saving algorithm
+ * (Metwally et al.): at most {@code capacity} items are counted, and a new item replaces the least
+ * frequent one, inheriting its count as possible overestimation.
+ * <p>
+ * Every item occurring more than {@code total / capacity} times is guaranteed to be counted. The
+ * counts are never too low, and too high by at most the error of the entry.
+ * <p>
+ * Not thread-safe.
+ */
+public class SpaceSaving<T> {
+    private static final Comparator<Counter<?>> BY_COUNT = new Comparator<Counter<?>>() {
+        @Override
+        public int compare(Counter<?> a, Counter<?> b) {
+            if (a.count != b.count) {
+                return a.count < b.count ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+        }
+    };
+
+    private final int capacity;
+    private final Map<T, Counter<T>> counters = new HashMap<>();
+    // Ordered by count, the least frequent item first.
+    private final TreeSet<Counter<?>> byCount = new TreeSet<>(BY_COUNT);
+    private long sequence;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    public void add(T item) {
+        Counter<T> counter = counters.get(item);
+        if (counter != null) {
+            byCount.remove(counter);
+        } else if (counters.size() < capacity) {
+            counter = new Counter<>(item);
+            counters.put(item, counter);
+        } else {
+            @SuppressWarnings("unchecked")
+            final Counter<T> evicted = (Counter<T>) byCount.pollFirst();
+            counters.remove(evicted.item);
+            counter = new Counter<>(item);
+            counter.count = evicted.count;
+            counter.error = evicted.count;
+            counters.put(item, counter);
+        }
+        counter.count++;
+        counter.sequence = sequence++;
+        byCount.add(counter);
+    }
+
+    /**
+     * @return up to {@code k} of the most frequent items, the most frequent first.
+     */
+    public List<Entry<T>> top(int k) {
+        final ImmutableList.Builder<Entry<T>> top = ImmutableList.builder();
+        final Iterator<Counter<?>> iterator = byCount.descendingIterator();
+        for (int i = 0; i < k && iterator.hasNext(); i++) {
+            @SuppressWarnings("unchecked")
+            final Counter<T> counter = (Counter<T>) iterator.next();
+            top.add(new Entry<>(counter.item, counter.count, counter.error));
+        }
+        return top.build();
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    private static class Counter<T> {
+        private final T item;
+        private long count;
+        private long error;
+        // Breaks ties, so counters with the same count are distinct in the tree.
+        private long sequence;
+
+        private Counter(T item) {
+            this.item = item;
+        }
+    }
+
+    public static class Entry<T> {
+        private final T item;
+        private final long count;
+        private final long error;
+
+        private Entry(T item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * @return the estimated count, which is at most {@link #getError()} too high.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Number of concurrent requests to a webhook, adapted to how the webhook copes (AIMD): every fast
+ * response raises the limit by {@code 1 / limit}, so it grows by about one per round of requests, and
+ * a slow response, a rate limit or a server error cuts it by {@value #BACKOFF_RATIO}.
+ * <p>
+ * A response is slow if it took more than {@value #LATENCY_TOLERANCE} times the shortest round-trip
+ * seen recently. The limit is cut at most once per round-trip, so the responses to the requests which
+ * were in flight when the webhook got slow don't cut it all the way to the minimum.
+ */
+public class AdaptiveConcurrencyLimit {
+    private static final double BACKOFF_RATIO = 0.9d;
+    private static final double LATENCY_TOLERANCE = 2.0d;
+    // The shortest round-trip is measured anew after this many responses, so it follows lasting changes.
+    private static final int MIN_RTT_SAMPLES = 1000;
+
+    private final Ticker ticker;
+
+    // Guarded by this, may be changed by setBounds().
+    private int minLimit;
+    private int maxLimit;
+    private double limit;
+    private long minRtt;
+    private int samples;
+    private long lastDecrease;
+
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, Ticker.systemTicker());
+    }
+
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit, Ticker ticker) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.ticker = ticker;
+        this.limit = this.minLimit;
+        this.lastDecrease = ticker.read();
+    }
+
+    /**
+     * Changes the bounds of the limit, e. g. because the configuration of an output posting to the webhook has
+     * changed. The current limit is moved into the new bounds.
+     */
+    public synchronized void setBounds(int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, limit));
+    }
+
+    /**
+     * Records a successful request which took {@code rttNanos}.
+     */
+    public synchronized void onSuccess(long rttNanos) {
+        if (samples++ % MIN_RTT_SAMPLES == 0 || rttNanos < minRtt) {
+            minRtt = rttNanos;
+        }
+
+        if (rttNanos > minRtt * LATENCY_TOLERANCE) {
+            decrease(rttNanos);
+        } else {
+            limit = Math.min(maxLimit, limit + 1.0d / limit);
+        }
+    }
+
+    /**
+     * Records a request which has been rate limited or failed because the webhook is in trouble.
+     */
+    public synchronized void onOverload(long rttNanos) {
+        decrease(rttNanos);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getMinLimit() {
+        return minLimit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    private void decrease(long rttNanos) {
+        final long now = ticker.read();
+        if (now - lastDecrease >= Math.max(rttNanos, minRtt)) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            lastDecrease = now;
+        }
+    }
+}
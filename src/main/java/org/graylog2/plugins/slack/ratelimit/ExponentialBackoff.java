@@ -0,0 +1,22 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with "full jitter", i. e. the delay is chosen randomly between zero and the
+ * exponentially growing upper bound so that retrying senders don't hit Slack in lockstep.
+ */
+public class ExponentialBackoff {
+    private final long baseMillis;
+    private final long maxMillis;
+
+    public ExponentialBackoff(long baseMillis, long maxMillis) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    public long delayMillis(int attempt) {
+        final long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
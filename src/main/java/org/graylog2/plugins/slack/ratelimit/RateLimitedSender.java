@@ -0,0 +1,175 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackPluginBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends messages through a {@link SlackClient} while keeping within the webhook's rate limit.
+ * <p>
+ * Requests are paced by a {@link TokenBucket} shared by all senders of a webhook. If Slack still
+ * responds with HTTP 429, the bucket is paused for the duration given in {@code Retry-After} and
+ * the message is retried afterwards, up to {@value #MAX_RATE_LIMITED_ATTEMPTS} times. Server errors and I/O errors are retried with exponential
+ * backoff and jitter; all other errors, and requests rejected by an open circuit breaker, are passed
+ * on to the caller.
+ * <p>
+ * If the sender has an {@link AdaptiveConcurrencyLimit}, the round-trip time and outcome of every request
+ * are reported to it.
+ * <p>
+ * {@link #send(SlackMessage, long)} waits for the rate limit and the retries itself. Callers which schedule
+ * requests themselves make single {@link #attempt(SlackMessage, Attempts) attempts} instead, and retry after
+ * the returned delay.
+ */
+public class RateLimitedSender {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitedSender.class);
+
+    public static final int DEFAULT_MESSAGES_PER_MINUTE = 60;
+    public static final int DEFAULT_BURST = 3;
+    public static final int DEFAULT_DELIVERY_DEADLINE = 120;
+    // Returned by attempt() once the message has been sent.
+    public static final long SENT = -1L;
+    private static final int MAX_RETRIES = 3;
+    // Bounds the retries of a message which keeps being rate limited when it has no deadline.
+    private static final int MAX_RATE_LIMITED_ATTEMPTS = 10;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000L;
+    private static final long BACKOFF_BASE_MILLIS = 500L;
+    private static final long BACKOFF_MAX_MILLIS = 30000L;
+
+    private final SlackClient client;
+    private final TokenBucket bucket;
+    private final ExponentialBackoff backoff;
+    private final int maxRetries;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+    public RateLimitedSender(SlackClient client, TokenBucket bucket) {
+        this(client, bucket, null);
+    }
+
+    /**
+     * @param concurrencyLimit the concurrency limit to report requests to, or {@code null}.
+     */
+    public RateLimitedSender(SlackClient client, TokenBucket bucket, AdaptiveConcurrencyLimit concurrencyLimit) {
+        this(client, bucket, concurrencyLimit, new ExponentialBackoff(BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS), MAX_RETRIES);
+    }
+
+    public RateLimitedSender(SlackClient client, TokenBucket bucket, ExponentialBackoff backoff, int maxRetries) {
+        this(client, bucket, null, backoff, maxRetries);
+    }
+
+    public RateLimitedSender(SlackClient client,
+                             TokenBucket bucket,
+                             AdaptiveConcurrencyLimit concurrencyLimit,
+                             ExponentialBackoff backoff,
+                             int maxRetries) {
+        this.client = client;
+        this.bucket = bucket;
+        this.concurrencyLimit = concurrencyLimit;
+        this.backoff = backoff;
+        this.maxRetries = maxRetries;
+    }
+
+    public static RateLimitedSender create(SlackClient client, Configuration configuration) {
+        return create(client, configuration, null);
+    }
+
+    public static RateLimitedSender create(SlackClient client, Configuration configuration, AdaptiveConcurrencyLimit concurrencyLimit) {
+        final TokenBucket bucket = SlackRateLimiters.forWebhook(
+                client.getRateLimitKey(),
+                configuration.getInt(SlackPluginBase.CK_RATE_LIMIT, DEFAULT_MESSAGES_PER_MINUTE),
+                configuration.getInt(SlackPluginBase.CK_RATE_BURST, DEFAULT_BURST)
+        );
+
+        return new RateLimitedSender(client, bucket, concurrencyLimit);
+    }
+
+    public void send(SlackMessage message) throws SlackClient.SlackClientException, InterruptedException {
+        send(message, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sends a message unless it can't be sent before the given deadline. The deadline covers waiting for the
+     * rate limit and retries; a single request is bounded by the transport's connect and read timeouts.
+     *
+     * @param deadline the deadline in terms of {@link System#nanoTime()}, {@link Long#MAX_VALUE} for none.
+     * @return {@code false} if the deadline has passed before the message could be sent.
+     */
+    public boolean send(SlackMessage message, long deadline) throws SlackClient.SlackClientException, InterruptedException {
+        final Attempts attempts = new Attempts();
+        while (true) {
+            if (deadline == Long.MAX_VALUE) {
+                bucket.acquire();
+            } else if (deadline - System.nanoTime() <= 0L || !bucket.acquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+
+            final long delay = attempt(message, attempts);
+            if (delay == SENT) {
+                return true;
+            }
+            if (deadline != Long.MAX_VALUE && System.nanoTime() + delay - deadline > 0L) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * Makes a single attempt to send a message, with a token of the {@link #getBucket() bucket} already taken.
+     * A rate limited request pauses the bucket, so the next token is only handed out once Slack accepts
+     * requests again.
+     *
+     * @param attempts the attempts made for the message so far, updated with this one.
+     * @return {@link #SENT} if the message has been sent, otherwise the delay in nanoseconds after which it
+     * should be retried (with a new token).
+     * @throws SlackClient.SlackClientException if the message can't be sent and shouldn't be retried.
+     */
+    public long attempt(SlackMessage message, Attempts attempts) throws SlackClient.SlackClientException {
+        final long start = System.nanoTime();
+        try {
+            client.send(message);
+            if (concurrencyLimit != null) {
+                concurrencyLimit.onSuccess(System.nanoTime() - start);
+            }
+            return SENT;
+        } catch (SlackClient.SlackClientException e) {
+            if (concurrencyLimit != null && (e.isRateLimited() || e.isRetryable() && !e.isCircuitOpen())) {
+                concurrencyLimit.onOverload(System.nanoTime() - start);
+            }
+            if (e.isRateLimited() && ++attempts.rateLimited < MAX_RATE_LIMITED_ATTEMPTS) {
+                final long retryAfter = e.getRetryAfterMillis() > 0 ? e.getRetryAfterMillis() : DEFAULT_RETRY_AFTER_MILLIS;
+                LOG.debug("Slack rate limit hit, deferring messages to webhook for {} ms.", retryAfter);
+                bucket.pause(retryAfter, TimeUnit.MILLISECONDS);
+                return 0L;
+            } else if (e.isRetryable() && !e.isCircuitOpen() && attempts.failed < maxRetries) {
+                final long delay = backoff.delayMillis(attempts.failed++);
+                LOG.debug("Sending message to Slack failed, retrying in {} ms.", delay, e);
+                return TimeUnit.MILLISECONDS.toNanos(delay);
+            }
+            throw e;
+        }
+    }
+
+    public TokenBucket getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return the adaptive concurrency limit of the webhook, or {@code null} if its concurrency is fixed.
+     */
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * The attempts made to send one message. Not thread-safe.
+     */
+    public static final class Attempts {
+        private int failed;
+        private int rateLimited;
+    }
+}
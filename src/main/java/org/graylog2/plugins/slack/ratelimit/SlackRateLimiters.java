@@ -0,0 +1,75 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-wide registry of token buckets, one per {@link org.graylog2.plugins.slack.SlackClient#getRateLimitKey()
+ * rate limit key}, so that every output and alarm callback posting to the same webhook shares its rate limit.
+ * The same goes for adaptive concurrency limits.
+ */
+public final class SlackRateLimiters {
+    private static final ConcurrentMap<String, Limit> BUCKETS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AdaptiveConcurrencyLimit> CONCURRENCY_LIMITS = new ConcurrentHashMap<>();
+
+    private SlackRateLimiters() {
+    }
+
+    /**
+     * Returns the token bucket of the given webhook. Slack enforces a single limit per webhook no matter how
+     * many outputs are using it, so the bucket is shared and its rate and burst are set to those of the latest
+     * caller, i. e. the output whose configuration has been saved last.
+     */
+    public static TokenBucket forWebhook(String webhookUrl, int messagesPerMinute, int burst) {
+        Limit limit = BUCKETS.get(webhookUrl);
+        if (limit == null) {
+            final Limit newLimit = new Limit(messagesPerMinute, burst);
+            limit = BUCKETS.putIfAbsent(webhookUrl, newLimit);
+            if (limit == null) {
+                return newLimit.bucket;
+            }
+        }
+
+        limit.update(messagesPerMinute, burst);
+        return limit.bucket;
+    }
+
+    /**
+     * Returns the adaptive concurrency limit of the given webhook. The limit is shared, so its bounds are set
+     * to those of the latest caller, i. e. the output whose configuration has been saved last.
+     */
+    public static AdaptiveConcurrencyLimit concurrencyLimitForWebhook(String webhookUrl, int minLimit, int maxLimit) {
+        AdaptiveConcurrencyLimit limit = CONCURRENCY_LIMITS.get(webhookUrl);
+        if (limit == null) {
+            final AdaptiveConcurrencyLimit newLimit = new AdaptiveConcurrencyLimit(minLimit, maxLimit);
+            limit = CONCURRENCY_LIMITS.putIfAbsent(webhookUrl, newLimit);
+            if (limit == null) {
+                return newLimit;
+            }
+        }
+
+        limit.setBounds(minLimit, maxLimit);
+        return limit;
+    }
+
+    private static final class Limit {
+        private final TokenBucket bucket;
+        // Guarded by this. The configured limit, the bucket keeps its share of it if it's shared with other nodes.
+        private int messagesPerMinute;
+        private int burst;
+
+        private Limit(int messagesPerMinute, int burst) {
+            this.bucket = new TokenBucket(Math.max(1, messagesPerMinute) / 60.0d, burst);
+            this.messagesPerMinute = messagesPerMinute;
+            this.burst = burst;
+        }
+
+        private synchronized void update(int messagesPerMinute, int burst) {
+            if (messagesPerMinute != this.messagesPerMinute || burst != this.burst) {
+                bucket.setRate(Math.max(1, messagesPerMinute) / 60.0d, burst);
+                this.messagesPerMinute = messagesPerMinute;
+                this.burst = burst;
+            }
+        }
+    }
+}
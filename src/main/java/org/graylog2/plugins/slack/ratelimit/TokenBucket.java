@@ -0,0 +1,170 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket which paces requests to a fixed rate with a limited burst, and which can be paused
+ * entirely when Slack asks us to back off.
+ * <p>
+ * The rate and burst may be {@link #setShares(int) shared}, e. g. with the other nodes of a cluster: the bucket
+ * then hands out its share of the rate and burst, also after the rate has been {@link #setRate(double, int) changed}.
+ */
+public class TokenBucket {
+    private final Ticker ticker;
+    // Guarded by this, may be changed by setRate() and setShares().
+    private double permitsPerSecond;
+    private int fullBurst;
+    private int shares = 1;
+    // The rate and burst of the bucket's share.
+    private double nanosPerToken;
+    private int burst;
+
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, Ticker.systemTicker());
+    }
+
+    public TokenBucket(double permitsPerSecond, int burst, Ticker ticker) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.ticker = ticker;
+        this.permitsPerSecond = permitsPerSecond;
+        this.fullBurst = burst;
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1L) / permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = ticker.read();
+        this.pausedUntil = lastRefill;
+    }
+
+    /**
+     * Blocks until a token is available and takes it.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = tryAcquire()) > 0L) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Blocks until a token is available and takes it, unless that would take longer than the given timeout.
+     *
+     * @return {@code true} if a token has been taken, {@code false} if the timeout would have been exceeded.
+     */
+    public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = ticker.read() + unit.toNanos(timeout);
+        long waitNanos;
+        while ((waitNanos = tryAcquire()) > 0L) {
+            if (ticker.read() + waitNanos - deadline > 0L) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return 0 if a token has been taken, otherwise the number of nanoseconds until the next token is available.
+     */
+    public long tryAcquire() {
+        return tryAcquire(0.0d);
+    }
+
+    /**
+     * Takes a token if one is available and at least {@code reserve} tokens are left afterwards, so the reserve
+     * stays available to more important requests. The reserve is capped to leave at least one token usable.
+     *
+     * @return 0 if a token has been taken, otherwise the number of nanoseconds until it could be taken.
+     */
+    public synchronized long tryAcquire(double reserve) {
+        final long now = ticker.read();
+        refill(now);
+
+        if (now - pausedUntil < 0L) {
+            return pausedUntil - now;
+        }
+        final double required = 1.0d + Math.max(0.0d, Math.min(reserve, burst - 1.0d));
+        if (tokens >= required) {
+            tokens -= 1.0d;
+            return 0L;
+        }
+
+        return Math.max(1L, (long) Math.ceil((required - tokens) * nanosPerToken));
+    }
+
+    /**
+     * Changes the rate and burst, e. g. because the configuration of the webhook's limit has changed. If the
+     * bucket is shared, it keeps its share of the new rate and burst. Tokens which have been accumulated beyond
+     * the new burst are discarded.
+     */
+    public synchronized void setRate(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.fullBurst = burst;
+        apply();
+    }
+
+    /**
+     * Limits the bucket to its share of the rate and burst, e. g. because the webhook's limit is shared with
+     * other nodes. Tokens which have been accumulated beyond the share's burst are discarded.
+     *
+     * @param shares the number of equal shares the rate is split into, 1 for the full rate.
+     */
+    public synchronized void setShares(int shares) {
+        this.shares = Math.max(1, shares);
+        apply();
+    }
+
+    private void apply() {
+        // Tokens accumulated so far count at the old rate.
+        refill(ticker.read());
+        this.nanosPerToken = TimeUnit.SECONDS.toNanos(1L) * shares / permitsPerSecond;
+        this.burst = shareOfBurst(fullBurst, shares);
+        this.tokens = Math.min(tokens, this.burst);
+    }
+
+    /**
+     * The burst of one share, so that the bursts of all shares don't add up to more than the full burst. A
+     * bucket can't hand out less than one token at a time though, so with more shares than the burst every
+     * share still gets a burst of one.
+     */
+    static int shareOfBurst(int burst, int shares) {
+        return Math.max(1, burst / shares);
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Hands out no tokens for the given amount of time, e. g. because Slack responded with {@code Retry-After}.
+     */
+    public synchronized void pause(long duration, TimeUnit unit) {
+        final long until = ticker.read() + unit.toNanos(duration);
+        if (until - pausedUntil > 0L) {
+            pausedUntil = until;
+            // Don't refill while paused, so there is no burst right after the pause.
+            lastRefill = until;
+            tokens = Math.min(tokens, 1.0d);
+        }
+    }
+
+    private void refill(long now) {
+        final long elapsed = now - lastRefill;
+        if (elapsed > 0L) {
+            tokens = Math.min(burst, tokens + elapsed / nanosPerToken);
+            lastRefill = now;
+        }
+    }
+}
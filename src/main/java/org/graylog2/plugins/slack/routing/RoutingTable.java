@@ -0,0 +1,242 @@
+package org.graylog2.plugins.slack.routing;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Ordered list of routing rules which pick the channel and color of a message by its fields.
+ * <p>
+ * Rules are separated by newlines or semicolons and have the form
+ * {@code <condition> [&& <condition>...] -> <channel> [<color>]}, e. g.
+ * <pre>
+ * level &lt;= 3 -&gt; #alerts danger
+ * source =~ db-.* &amp;&amp; facility = mysql -&gt; #dba
+ * </pre>
+ * A condition compares a message field with {@code =}, {@code !=}, {@code =~} (regular expression found in
+ * the value), {@code !~}, {@code <}, {@code <=}, {@code >} or {@code >=} (numeric). Conditions on missing
+ * fields don't match. The rules are compiled once; the first matching rule wins.
+ */
+public class RoutingTable {
+    private static final Splitter RULE_SPLITTER = Splitter.on(Pattern.compile("[;\\n]")).trimResults().omitEmptyStrings();
+    private static final Splitter CONDITION_SPLITTER = Splitter.on("&&").trimResults();
+    private static final Splitter TARGET_SPLITTER = Splitter.on(Pattern.compile("\\s+")).trimResults().omitEmptyStrings();
+    private static final Pattern CONDITION_PATTERN = Pattern.compile("^([\\w.\\-]+)\\s*(=~|!~|!=|<=|>=|=|<|>)\\s*(.*)$");
+
+    private static final RoutingTable EMPTY = new RoutingTable(ImmutableList.<Rule>of());
+
+    private final Rule[] rules;
+
+    private RoutingTable(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[rules.size()]);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a rule can't be parsed.
+     */
+    public static RoutingTable compile(String rules) {
+        if (rules == null || rules.trim().isEmpty()) {
+            return EMPTY;
+        }
+
+        final ImmutableList.Builder<Rule> compiled = ImmutableList.builder();
+        for (String rule : RULE_SPLITTER.split(rules)) {
+            compiled.add(compileRule(rule));
+        }
+        return new RoutingTable(compiled.build());
+    }
+
+    /**
+     * @return the route of the first matching rule or {@code null} if no rule matches.
+     */
+    public Route route(Message message) {
+        for (Rule rule : rules) {
+            if (rule.matches(message)) {
+                return rule.route;
+            }
+        }
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    private static Rule compileRule(String rule) {
+        final int arrow = rule.lastIndexOf("->");
+        if (arrow < 0) {
+            throw new IllegalArgumentException("Missing \"->\" in routing rule <" + rule + ">.");
+        }
+
+        final List<String> target = TARGET_SPLITTER.splitToList(rule.substring(arrow + 2));
+        if (target.isEmpty() || target.size() > 2) {
+            throw new IllegalArgumentException("Expected channel and optional color after \"->\" in routing rule <" + rule + ">.");
+        }
+
+        final ImmutableList.Builder<Condition> conditions = ImmutableList.builder();
+        for (String condition : CONDITION_SPLITTER.split(rule.substring(0, arrow))) {
+            conditions.add(compileCondition(condition, rule));
+        }
+
+        return new Rule(conditions.build(), new Route(target.get(0), target.size() > 1 ? target.get(1) : null));
+    }
+
+    private static Condition compileCondition(String condition, String rule) {
+        final Matcher matcher = CONDITION_PATTERN.matcher(condition);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid condition <" + condition + "> in routing rule <" + rule + ">.");
+        }
+
+        final String field = matcher.group(1);
+        final String operator = matcher.group(2);
+        final String value = matcher.group(3).trim();
+        switch (operator) {
+            case "=":
+                return new EqualsCondition(field, value, false);
+            case "!=":
+                return new EqualsCondition(field, value, true);
+            case "=~":
+            case "!~":
+                try {
+                    return new RegexCondition(field, Pattern.compile(value), "!~".equals(operator));
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Invalid regular expression in routing rule <" + rule + ">.", e);
+                }
+            default:
+                try {
+                    return new NumericCondition(field, operator, Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Expected a number in condition <" + condition + "> of routing rule <" + rule + ">.", e);
+                }
+        }
+    }
+
+    public static final class Route {
+        private final String channel;
+        private final String color;
+
+        private Route(String channel, String color) {
+            this.channel = channel;
+            this.color = color;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        /**
+         * @return the color of the route or {@code null} to use the configured one.
+         */
+        public String getColor() {
+            return color;
+        }
+    }
+
+    private static final class Rule {
+        private final Condition[] conditions;
+        private final Route route;
+
+        private Rule(List<Condition> conditions, Route route) {
+            this.conditions = conditions.toArray(new Condition[conditions.size()]);
+            this.route = route;
+        }
+
+        private boolean matches(Message message) {
+            for (Condition condition : conditions) {
+                if (!condition.matches(message)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private abstract static class Condition {
+        private final String field;
+
+        private Condition(String field) {
+            this.field = field;
+        }
+
+        boolean matches(Message message) {
+            final Object value = message.getField(field);
+            return value != null && matches(value);
+        }
+
+        abstract boolean matches(Object value);
+    }
+
+    private static final class EqualsCondition extends Condition {
+        private final String expected;
+        private final boolean negated;
+
+        private EqualsCondition(String field, String expected, boolean negated) {
+            super(field);
+            this.expected = expected;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            return expected.equals(value.toString()) != negated;
+        }
+    }
+
+    private static final class RegexCondition extends Condition {
+        private final Pattern pattern;
+        private final boolean negated;
+
+        private RegexCondition(String field, Pattern pattern, boolean negated) {
+            super(field);
+            this.pattern = pattern;
+            this.negated = negated;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            return pattern.matcher(value.toString()).find() != negated;
+        }
+    }
+
+    private static final class NumericCondition extends Condition {
+        private final String operator;
+        private final double threshold;
+
+        private NumericCondition(String field, String operator, double threshold) {
+            super(field);
+            this.operator = operator;
+            this.threshold = threshold;
+        }
+
+        @Override
+        boolean matches(Object value) {
+            final double number;
+            if (value instanceof Number) {
+                number = ((Number) value).doubleValue();
+            } else {
+                try {
+                    number = Double.parseDouble(value.toString());
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+
+            switch (operator) {
+                case "<":
+                    return number < threshold;
+                case "<=":
+                    return number <= threshold;
+                case ">":
+                    return number > threshold;
+                case ">=":
+                default:
+                    return number >= threshold;
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package org.graylog2.plugins.slack.spool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead spool of Slack payloads which couldn't be delivered.
+ * <p>
+ * Payloads are appended to memory-mapped segment files of a fixed size in a directory which is owned by one
+ * spool at a time. Every record consists of a header (payload length, CRC32 and the time it was spooled)
+ * followed by the payload; a length of zero marks the end of the written part of a segment. The position of
+ * the oldest record which hasn't been delivered yet is kept in a small checkpoint file, so records are read
+ * in order and survive a restart. Fully read segments are deleted.
+ * <p>
+ * The spool is bounded in size (the oldest segments are discarded when it's full) and in age (records older
+ * than the maximum age are skipped while reading). A record with an invalid header or checksum ends its
+ * segment, so a torn write or corrupted file only loses the rest of that segment. A record which was taken
+ * from a segment that has been discarded since is ignored when it's removed, and reading continues with
+ * the oldest remaining record.
+ */
+public class SlackSpool implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(SlackSpool.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String LOCK_FILE = "lock";
+    // Payload length, CRC32 and timestamp.
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSegments;
+    private final long maxAgeMillis;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final MappedByteBuffer checkpoint;
+    private final TreeSet<Long> segments = new TreeSet<>();
+    // The mapping of every segment which is read from or written to. Deleted segments are unmapped right
+    // away, so the spool's files don't stay mapped (and on some platforms can't be deleted) until GC.
+    private final Map<Long, MappedByteBuffer> mappings = new HashMap<>();
+
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment;
+    private int readOffset;
+    private ByteBuffer readBuffer;
+    private long appended;
+    private long expired;
+    private long discarded;
+    private boolean closed;
+
+    public SlackSpool(Path directory, long maxBytes, long maxAge, TimeUnit maxAgeUnit) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, maxBytes, maxAgeUnit.toMillis(maxAge));
+    }
+
+    public SlackSpool(Path directory, int segmentSize, long maxBytes, long maxAgeMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        // One segment is written to while another one is read from.
+        this.maxSegments = Math.max(2L, maxBytes / segmentSize);
+        this.maxAgeMillis = maxAgeMillis;
+
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lockChannel.close();
+            throw new IOException("Spool directory " + directory + " is already in use.", e);
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Spool directory " + directory + " is already in use.");
+        }
+
+        try {
+            try (final FileChannel channel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.checkpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, 8 + 4);
+            }
+
+            recover();
+        } catch (IOException | RuntimeException e) {
+            // Otherwise the directory stays locked until the JVM exits.
+            releaseLock();
+            throw e;
+        }
+    }
+
+    private void recover() throws IOException {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unknown file {} in spool directory.", file);
+                }
+            }
+        }
+
+        final long checkpointSegment = checkpoint.getLong(0);
+        final int checkpointOffset = checkpoint.getInt(8);
+        if (segments.contains(checkpointSegment) && checkpointOffset >= 0 && checkpointOffset < segmentSize) {
+            readSegment = checkpointSegment;
+            readOffset = checkpointOffset;
+        } else {
+            readSegment = segments.isEmpty() ? 0L : segments.first();
+            readOffset = 0;
+        }
+        // Segments before the checkpoint have been read completely.
+        while (!segments.isEmpty() && segments.first() < readSegment) {
+            deleteSegment(segments.first());
+        }
+
+        // Never append to a segment of a previous run, its end might be torn.
+        openWriteSegment(segments.isEmpty() ? readSegment : segments.last() + 1);
+        if (segments.size() > 1) {
+            LOG.info("Recovered {} spool segments from {}.", segments.size() - 1, directory);
+        }
+    }
+
+    /**
+     * Appends a payload to the spool.
+     *
+     * @throws IOException if the payload is larger than a segment or the segment file can't be created.
+     */
+    public synchronized void append(byte[] payload) throws IOException {
+        checkOpen();
+        final int recordSize = HEADER_SIZE + payload.length;
+        // Leave room for the end marker.
+        if (recordSize + 4 > segmentSize) {
+            throw new IOException("Payload of " + payload.length + " bytes is too large for the spool.");
+        }
+        if (writeBuffer.position() + recordSize + 4 > segmentSize) {
+            writeBuffer.force();
+            openWriteSegment(writeSegment + 1);
+        }
+
+        final long timestamp = System.currentTimeMillis();
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, timestamp).array());
+        crc.update(payload);
+
+        final int start = writeBuffer.position();
+        writeBuffer.position(start + 4);
+        writeBuffer.putInt((int) crc.getValue());
+        writeBuffer.putLong(timestamp);
+        writeBuffer.put(payload);
+        // The length makes the record visible, so it's written last.
+        writeBuffer.putInt(start, payload.length);
+
+        appended++;
+        notifyAll();
+    }
+
+    /**
+     * Waits up to the given time for the oldest record in the spool.
+     *
+     * @return the oldest record or {@code null} if the spool stayed empty.
+     */
+    public synchronized Record take(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Record record = peek();
+        while (record == null && !closed) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0L) {
+                return null;
+            }
+            wait(remaining);
+            record = peek();
+        }
+        return record;
+    }
+
+    /**
+     * Removes a record returned by {@link #take(long, TimeUnit)} from the spool. Records which are no longer
+     * in the spool, because their segment has been discarded or they expired, are ignored.
+     */
+    public synchronized void remove(Record record) throws IOException {
+        if (closed || record.segment < readSegment || (record.segment == readSegment && record.offset < readOffset)) {
+            return;
+        }
+        if (record.segment != readSegment || record.offset != readOffset) {
+            throw new IllegalStateException("Records must be removed in order.");
+        }
+        readOffset = record.nextOffset;
+        writeCheckpoint();
+    }
+
+    private Record peek() throws IOException {
+        while (!closed) {
+            if (readBuffer == null) {
+                readBuffer = map(readSegment).duplicate();
+            }
+
+            final int length = readOffset + HEADER_SIZE <= segmentSize ? readBuffer.getInt(readOffset) : 0;
+            if (length == 0) {
+                if (readSegment == writeSegment) {
+                    return null;
+                }
+                nextReadSegment();
+                continue;
+            }
+
+            if (length < 0 || length > segmentSize - readOffset - HEADER_SIZE) {
+                LOG.warn("Invalid record length {} at offset {} of spool segment {}, skipping rest of the segment.",
+                        length, readOffset, readSegment);
+                skipCorruptSegment();
+                continue;
+            }
+
+            final int storedCrc = readBuffer.getInt(readOffset + 4);
+            final long timestamp = readBuffer.getLong(readOffset + 8);
+            final byte[] payload = new byte[length];
+            final ByteBuffer view = readBuffer.duplicate();
+            view.position(readOffset + HEADER_SIZE);
+            view.get(payload);
+
+            final CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(8).putLong(0, timestamp).array());
+            crc.update(payload);
+            if ((int) crc.getValue() != storedCrc) {
+                LOG.warn("Checksum mismatch at offset {} of spool segment {}, skipping rest of the segment.", readOffset, readSegment);
+                skipCorruptSegment();
+                continue;
+            }
+
+            final int nextOffset = readOffset + HEADER_SIZE + length;
+            if (maxAgeMillis > 0L && System.currentTimeMillis() - timestamp > maxAgeMillis) {
+                expired++;
+                readOffset = nextOffset;
+                writeCheckpoint();
+                continue;
+            }
+
+            return new Record(readSegment, readOffset, nextOffset, payload);
+        }
+        return null;
+    }
+
+    private void skipCorruptSegment() throws IOException {
+        if (readSegment == writeSegment) {
+            // Can't happen with a segment written by this instance, but never read garbage twice.
+            readOffset = writeBuffer.position();
+            writeCheckpoint();
+        } else {
+            nextReadSegment();
+        }
+    }
+
+    private void nextReadSegment() throws IOException {
+        final long finished = readSegment;
+        final Long next = segments.higher(finished);
+        readSegment = next == null ? writeSegment : next;
+        readOffset = 0;
+        readBuffer = null;
+        writeCheckpoint();
+        deleteSegment(finished);
+    }
+
+    private void openWriteSegment(long segment) throws IOException {
+        writeSegment = segment;
+        writeBuffer = map(segment);
+        segments.add(segment);
+        if (readSegment == segment) {
+            readBuffer = writeBuffer.duplicate();
+        }
+
+        while (segments.size() > maxSegments) {
+            final long oldest = segments.first();
+            LOG.warn("Spool in {} is full, discarding segment {}.", directory, oldest);
+            discarded++;
+            if (oldest == readSegment) {
+                nextReadSegment();
+            } else {
+                deleteSegment(oldest);
+            }
+        }
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        MappedByteBuffer buffer = mappings.get(segment);
+        if (buffer == null) {
+            try (final FileChannel channel = FileChannel.open(segmentFile(segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            mappings.put(segment, buffer);
+        }
+        return buffer;
+    }
+
+    // Callers must have dropped every view of the segment's buffer, it's unusable once it's unmapped.
+    private void deleteSegment(long segment) throws IOException {
+        segments.remove(segment);
+        unmap(mappings.remove(segment));
+        Files.deleteIfExists(segmentFile(segment));
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            try {
+                // Java 9 and later.
+                final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8.
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            LOG.debug("Couldn't unmap spool segment, it's released by the garbage collector.", e);
+        }
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(8, readOffset);
+    }
+
+    private Path segmentFile(long segment) {
+        return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Spool has been closed.");
+        }
+    }
+
+    /**
+     * @return the number of bytes used by the spool's segment files.
+     */
+    public synchronized long sizeInBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    public synchronized boolean isEmpty() throws IOException {
+        return peek() == null;
+    }
+
+    public synchronized long getAppendedCount() {
+        return appended;
+    }
+
+    public synchronized long getExpiredCount() {
+        return expired;
+    }
+
+    public synchronized long getDiscardedSegmentCount() {
+        return discarded;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+
+        try {
+            writeBuffer.force();
+            checkpoint.force();
+        } finally {
+            readBuffer = null;
+            writeBuffer = null;
+            for (MappedByteBuffer buffer : mappings.values()) {
+                unmap(buffer);
+            }
+            mappings.clear();
+            releaseLock();
+        }
+    }
+
+    private void releaseLock() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    public static final class Record {
+        private final long segment;
+        private final int offset;
+        private final int nextOffset;
+        private final byte[] payload;
+
+        private Record(long segment, int offset, int nextOffset, byte[] payload) {
+            this.segment = segment;
+            this.offset = offset;
+            this.nextOffset = nextOffset;
+            this.payload = payload;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
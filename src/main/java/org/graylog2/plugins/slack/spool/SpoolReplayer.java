@@ -0,0 +1,162 @@
+package org.graylog2.plugins.slack.spool;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackMetrics;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.plugins.slack.ratelimit.ExponentialBackoff;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the records of a {@link SlackSpool} in order. A record is only removed from the spool once it has
+ * been delivered (or has been rejected by Slack), so the replay stalls while the webhook is unavailable.
+ * <p>
+ * Records are sent one at a time as {@link SlackDeliveryService.Priority#LOW low priority} deliveries of the
+ * delivery service, so the replay gets the share of the webhook's rate limit the live messages leave, and
+ * the spool is polled and retried on the service's scheduler instead of a thread of its own.
+ */
+public class SpoolReplayer {
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolReplayer.class);
+    private static final long POLL_INTERVAL_MS = 1000L;
+    private static final long BACKOFF_BASE_MILLIS = 1000L;
+    private static final long BACKOFF_MAX_MILLIS = 60000L;
+
+    private final SlackSpool spool;
+    private final RateLimitedSender sender;
+    private final SlackDeliveryService deliveryService;
+    private final SlackMetrics metrics;
+    private final ExponentialBackoff backoff = new ExponentialBackoff(BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS);
+    private final Runnable replayNext = new Runnable() {
+        @Override
+        public void run() {
+            replayNext();
+        }
+    };
+
+    // Guarded by this. Only one record is replayed at a time, so the attempts belong to the current one.
+    private boolean running = true;
+    private ScheduledFuture<?> scheduled;
+    private int failedAttempts;
+
+    public SpoolReplayer(SlackSpool spool, RateLimitedSender sender, SlackDeliveryService deliveryService, SlackMetrics metrics) {
+        this.spool = spool;
+        this.sender = sender;
+        this.deliveryService = deliveryService;
+        this.metrics = metrics;
+        schedule(0L);
+    }
+
+    private void replayNext() {
+        final SlackSpool.Record record;
+        try {
+            record = spool.take(0L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error while reading spooled Slack messages.", e);
+            schedule(BACKOFF_MAX_MILLIS);
+            return;
+        }
+        if (record == null) {
+            schedule(POLL_INTERVAL_MS);
+            return;
+        }
+
+        final SlackMessage message = SlackMessage.fromPayload(record.getPayload());
+        Futures.addCallback(
+                deliveryService.send(sender, message, SlackDeliveryService.Priority.LOW, Long.MAX_VALUE),
+                new FutureCallback<Boolean>() {
+                    @Override
+                    public void onSuccess(Boolean sent) {
+                        if (sent) {
+                            metrics.replayed().mark();
+                            replayed(record, null);
+                        } else {
+                            // Only happens if the delivery service is shut down before the message is sent.
+                            retry("delivery service is shutting down");
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        replayed(record, t);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Removes a record which has been sent or rejected from the spool and goes on with the next one, or retries
+     * it after a backoff if it couldn't be sent for now.
+     */
+    private void replayed(SlackSpool.Record record, Throwable failure) {
+        if (failure instanceof SlackClient.SlackClientException) {
+            final SlackClient.SlackClientException e = (SlackClient.SlackClientException) failure;
+            if (e.isRetryable() || e.isRateLimited()) {
+                retry(e.getMessage());
+                return;
+            }
+            LOG.warn("Slack rejected spooled message, discarding it: {}", e.getMessage());
+            metrics.dropped().mark();
+        } else if (failure != null) {
+            LOG.error("Error while replaying spooled Slack message.", failure);
+            schedule(BACKOFF_MAX_MILLIS);
+            return;
+        }
+
+        synchronized (this) {
+            failedAttempts = 0;
+        }
+        try {
+            spool.remove(record);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not remove replayed message from spool.", e);
+            schedule(BACKOFF_MAX_MILLIS);
+            return;
+        }
+        schedule(0L);
+    }
+
+    private void retry(String reason) {
+        final long delay;
+        synchronized (this) {
+            delay = backoff.delayMillis(failedAttempts++);
+        }
+        LOG.debug("Replaying spooled message failed, retrying in {} ms: {}", delay, reason);
+        schedule(delay);
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        if (!running) {
+            return;
+        }
+        try {
+            scheduled = deliveryService.getScheduler().schedule(replayNext, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The delivery service has been shut down.
+            running = false;
+        }
+    }
+
+    /**
+     * Stops replaying. Records which haven't been delivered stay in the spool; a record whose delivery is in
+     * flight may be sent again after a restart.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+}
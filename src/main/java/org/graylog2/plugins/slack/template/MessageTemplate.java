@@ -0,0 +1,217 @@
+package org.graylog2.plugins.slack.template;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.streams.Stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Custom message template with {@code ${name}} placeholders, compiled once into a list of segments
+ * so that rendering a message only appends strings to a {@link StringBuilder}.
+ * <p>
+ * Supported placeholders:
+ * <ul>
+ * <li>{@code ${stream.id}}, {@code ${stream.title}}, {@code ${stream.description}}</li>
+ * <li>{@code ${alert.description}}, {@code ${alert.condition}}, {@code ${alert.triggered_at}} (alarm callback only)</li>
+ * <li>{@code ${backlog}} (the backlog messages, one per line) and {@code ${backlog.size}} (alarm callback only)</li>
+ * <li>{@code ${message}} and any other message field, e. g. {@code ${source}} or {@code ${level}}. In the alarm
+ * callback these refer to the first backlog message.</li>
+ * </ul>
+ * Unknown placeholders and missing fields are rendered as empty strings.
+ */
+public final class MessageTemplate {
+    private static final int MAX_CACHED_TEMPLATES = 1000;
+    private static final LoadingCache<String, MessageTemplate> TEMPLATES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_TEMPLATES)
+            .build(new CacheLoader<String, MessageTemplate>() {
+                @Override
+                public MessageTemplate load(String template) {
+                    return new MessageTemplate(template);
+                }
+            });
+
+    private final Segment[] segments;
+    private final int literalLength;
+
+    private MessageTemplate(String template) {
+        final List<Segment> parsed = new ArrayList<>();
+        int length = 0;
+        int pos = 0;
+        while (pos < template.length()) {
+            final int start = template.indexOf("${", pos);
+            final int end = start < 0 ? -1 : template.indexOf('}', start + 2);
+            if (start < 0 || end < 0) {
+                parsed.add(new Literal(template.substring(pos)));
+                length += template.length() - pos;
+                break;
+            }
+            if (start > pos) {
+                parsed.add(new Literal(template.substring(pos, start)));
+                length += start - pos;
+            }
+            parsed.add(variable(template.substring(start + 2, end).trim()));
+            pos = end + 1;
+        }
+
+        this.segments = parsed.toArray(new Segment[parsed.size()]);
+        this.literalLength = length;
+    }
+
+    /**
+     * Returns the compiled template, reusing a previous compilation of the same template.
+     */
+    public static MessageTemplate compile(String template) {
+        return TEMPLATES.getUnchecked(template);
+    }
+
+    public String render(Stream stream, Message message) {
+        return render(stream, message, null, 0);
+    }
+
+    public String render(Stream stream, AlertCondition.CheckResult result, int maxBacklog) {
+        final List<MessageSummary> matchingMessages = result.getMatchingMessages();
+        final Message first = matchingMessages == null || matchingMessages.isEmpty() || maxBacklog <= 0
+                ? null : matchingMessages.get(0).getRawMessage();
+        return render(stream, first, result, maxBacklog);
+    }
+
+    private String render(Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+        final StringBuilder sb = new StringBuilder(literalLength + 16 * segments.length);
+        for (Segment segment : segments) {
+            segment.append(sb, stream, message, result, maxBacklog);
+        }
+        return sb.toString();
+    }
+
+    private static Segment variable(String name) {
+        switch (name) {
+            case "stream.id":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (stream != null) {
+                            appendValue(sb, stream.getId());
+                        }
+                    }
+                };
+            case "stream.title":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (stream != null) {
+                            appendValue(sb, stream.getTitle());
+                        }
+                    }
+                };
+            case "stream.description":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (stream != null) {
+                            appendValue(sb, stream.getDescription());
+                        }
+                    }
+                };
+            case "alert.description":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (result != null) {
+                            appendValue(sb, result.getResultDescription());
+                        }
+                    }
+                };
+            case "alert.condition":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (result != null && result.getTriggeredCondition() != null) {
+                            appendValue(sb, result.getTriggeredCondition().getDescription());
+                        }
+                    }
+                };
+            case "alert.triggered_at":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (result != null) {
+                            appendValue(sb, result.getTriggeredAt());
+                        }
+                    }
+                };
+            case "backlog":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (result == null || result.getMatchingMessages() == null) {
+                            return;
+                        }
+                        final List<MessageSummary> matchingMessages = result.getMatchingMessages();
+                        final int size = Math.min(maxBacklog, matchingMessages.size());
+                        for (int i = 0; i < size; i++) {
+                            if (i > 0) {
+                                sb.append('\n');
+                            }
+                            sb.append("> ");
+                            appendValue(sb, matchingMessages.get(i).getMessage());
+                        }
+                    }
+                };
+            case "backlog.size":
+                return new Segment() {
+                    @Override
+                    void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+                        if (result != null && result.getMatchingMessages() != null) {
+                            sb.append(Math.min(maxBacklog, result.getMatchingMessages().size()));
+                        }
+                    }
+                };
+            default:
+                return new MessageField(name);
+        }
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value != null) {
+            sb.append(value);
+        }
+    }
+
+    private abstract static class Segment {
+        abstract void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog);
+    }
+
+    private static final class Literal extends Segment {
+        private final String text;
+
+        private Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+            sb.append(text);
+        }
+    }
+
+    private static final class MessageField extends Segment {
+        private final String field;
+
+        private MessageField(String field) {
+            this.field = field;
+        }
+
+        @Override
+        void append(StringBuilder sb, Stream stream, Message message, AlertCondition.CheckResult result, int maxBacklog) {
+            if (message != null) {
+                appendValue(sb, message.getField(field));
+            }
+        }
+    }
+}
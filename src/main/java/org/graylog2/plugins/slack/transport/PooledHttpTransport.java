@@ -0,0 +1,174 @@
+package org.graylog2.plugins.slack.transport;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link SlackTransport} on top of {@link HttpURLConnection} which keeps connections to a host alive.
+ * <p>
+ * The JDK only returns a connection to its keep-alive cache once the response (or error) stream has been
+ * read completely, so every response is drained, including error responses. The number of concurrent
+ * connections to the host is bounded by {@link TransportSettings#getMaxConnectionsPerHost()}; transports
+ * which share their {@link HostConnections} share the bound, while timeouts and compression are their own.
+ * <p>
+ * Bodies are written with a fixed length, so the JDK streams them to the connection instead of buffering
+ * a copy. If {@link TransportSettings#isCompressRequests() enabled}, bodies larger than
+ * {@value #MIN_COMPRESSED_SIZE} bytes are sent gzip-compressed.
+ */
+public class PooledHttpTransport implements SlackTransport {
+    static final int MIN_COMPRESSED_SIZE = 1024;
+
+    private final HostConnections connections;
+    private final TransportSettings settings;
+
+    public PooledHttpTransport(TransportSettings settings) {
+        this(new HostConnections(settings.getMaxConnectionsPerHost()), settings);
+    }
+
+    PooledHttpTransport(HostConnections connections, TransportSettings settings) {
+        this.connections = connections;
+        this.settings = settings;
+    }
+
+    HostConnections getConnections() {
+        return connections;
+    }
+
+    @Override
+    public SlackResponse post(URL url, String contentType, Map<String, String> headers, byte[] body) throws IOException {
+        try {
+            connections.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + url.getHost(), e);
+        }
+
+        try {
+            return doPost(url, contentType, headers, body);
+        } finally {
+            connections.permits.release();
+        }
+    }
+
+    private SlackResponse doPost(URL url, String contentType, Map<String, String> headers, byte[] body) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(settings.getConnectTimeout());
+        conn.setReadTimeout(settings.getReadTimeout());
+        conn.setUseCaches(false);
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Connection", "keep-alive");
+        conn.setRequestProperty("Content-Type", contentType);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        final byte[] entity;
+        if (settings.isCompressRequests() && body.length > MIN_COMPRESSED_SIZE) {
+            entity = gzip(body);
+            conn.setRequestProperty("Content-Encoding", "gzip");
+        } else {
+            entity = body;
+        }
+        conn.setFixedLengthStreamingMode(entity.length);
+
+        try (final OutputStream out = conn.getOutputStream()) {
+            out.write(entity);
+        }
+
+        final int responseCode;
+        try {
+            responseCode = conn.getResponseCode();
+        } catch (IOException e) {
+            // The connection is in an unknown state and must not be reused.
+            conn.disconnect();
+            throw e;
+        }
+
+        final String responseBody = readFully(responseCode < 400 ? conn.getInputStream() : conn.getErrorStream());
+        return new SlackResponse(responseCode, responseBody, headers(conn));
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        // JSON usually compresses to a fraction of its size.
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+        try (final GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(body);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Map<String, String> headers(HttpURLConnection conn) {
+        final Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : conn.getHeaderFields().entrySet()) {
+            // The status line is returned with a null key.
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+
+    private static String readFully(InputStream stream) throws IOException {
+        if (stream == null) {
+            return "";
+        }
+
+        try (final InputStream responseStream = stream) {
+            return new String(ByteStreams.toByteArray(responseStream), Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * The bound on concurrent connections to a host. The bound can be changed while connections are open, e. g.
+     * because the configuration of an output has been changed; requests over the new bound wait for others to
+     * finish.
+     */
+    static final class HostConnections {
+        private final ResizableSemaphore permits;
+        // Guarded by this.
+        private int maxConnections;
+
+        HostConnections(int maxConnections) {
+            this.maxConnections = Math.max(1, maxConnections);
+            this.permits = new ResizableSemaphore(this.maxConnections);
+        }
+
+        synchronized void setMaxConnections(int maxConnections) {
+            final int max = Math.max(1, maxConnections);
+            if (max > this.maxConnections) {
+                permits.release(max - this.maxConnections);
+            } else if (max < this.maxConnections) {
+                permits.reducePermits(this.maxConnections - max);
+            }
+            this.maxConnections = max;
+        }
+
+        synchronized int getMaxConnections() {
+            return maxConnections;
+        }
+    }
+
+    private static final class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
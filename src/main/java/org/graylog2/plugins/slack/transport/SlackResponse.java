@@ -0,0 +1,34 @@
+package org.graylog2.plugins.slack.transport;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SlackResponse {
+    private final int statusCode;
+    private final String body;
+    private final Map<String, String> headers;
+
+    public SlackResponse(int statusCode, String body) {
+        this(statusCode, body, Collections.<String, String>emptyMap());
+    }
+
+    public SlackResponse(int statusCode, String body, Map<String, String> headers) {
+        this.statusCode = statusCode;
+        this.body = body;
+        this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        this.headers.putAll(headers);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+}
@@ -0,0 +1,20 @@
+package org.graylog2.plugins.slack.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Sends already serialized payloads to a Slack endpoint.
+ */
+public interface SlackTransport {
+    default SlackResponse post(URL url, String contentType, byte[] body) throws IOException {
+        return post(url, contentType, Collections.<String, String>emptyMap(), body);
+    }
+
+    /**
+     * @param headers additional request headers, e. g. {@code Authorization}.
+     */
+    SlackResponse post(URL url, String contentType, Map<String, String> headers, byte[] body) throws IOException;
+}
@@ -0,0 +1,68 @@
+package org.graylog2.plugins.slack.transport;
+
+import com.google.common.collect.MapMaker;
+
+import java.net.URL;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-wide registry of the connections to webhook hosts, so that all outputs and alarm callbacks sending to
+ * the same host share one connection pool and its bound. The bound is that of the latest caller, i. e. the
+ * output whose configuration has been saved last; timeouts and compression are per caller.
+ * <p>
+ * A host's entry is only weakly referenced and goes away once no transport uses it any more.
+ */
+public final class SlackTransports {
+    private static final ConcurrentMap<Key, PooledHttpTransport.HostConnections> CONNECTIONS = new MapMaker().weakValues().makeMap();
+
+    private SlackTransports() {
+    }
+
+    public static SlackTransport forUrl(URL url, TransportSettings settings) {
+        final Key key = new Key(url.getProtocol(), url.getHost(), url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+        PooledHttpTransport.HostConnections connections = CONNECTIONS.get(key);
+        if (connections == null) {
+            final PooledHttpTransport.HostConnections newConnections = new PooledHttpTransport.HostConnections(settings.getMaxConnectionsPerHost());
+            connections = CONNECTIONS.putIfAbsent(key, newConnections);
+            if (connections == null) {
+                return new PooledHttpTransport(newConnections, settings);
+            }
+        }
+
+        connections.setMaxConnections(settings.getMaxConnectionsPerHost());
+        return new PooledHttpTransport(connections, settings);
+    }
+
+    private static final class Key {
+        private final String protocol;
+        private final String host;
+        private final int port;
+
+        private Key(String protocol, String host, int port) {
+            this.protocol = protocol;
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key that = (Key) o;
+            return port == that.port
+                    && protocol.equals(that.protocol)
+                    && host.equalsIgnoreCase(that.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(protocol, host.toLowerCase(Locale.ENGLISH), port);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.graylog2.plugins.slack.transport;
+
+import java.util.Objects;
+
+public class TransportSettings {
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    public static final int DEFAULT_READ_TIMEOUT = 10000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxConnectionsPerHost;
+    private final boolean compressRequests;
+
+    public TransportSettings(int connectTimeout, int readTimeout, int maxConnectionsPerHost) {
+        this(connectTimeout, readTimeout, maxConnectionsPerHost, false);
+    }
+
+    public TransportSettings(int connectTimeout, int readTimeout, int maxConnectionsPerHost, boolean compressRequests) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+        this.compressRequests = compressRequests;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * @return {@code true} if request bodies are sent gzip-compressed, which only some endpoints and proxies accept.
+     */
+    public boolean isCompressRequests() {
+        return compressRequests;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final TransportSettings that = (TransportSettings) o;
+        return connectTimeout == that.connectTimeout
+                && readTimeout == that.readTimeout
+                && maxConnectionsPerHost == that.maxConnectionsPerHost
+                && compressRequests == that.compressRequests;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connectTimeout, readTimeout, maxConnectionsPerHost, compressRequests);
+    }
+}
@@ -0,0 +1,161 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackTestSupport.WebhookStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackClientTest {
+    private static final String POSTED = "{\"ok\":true,\"channel\":\"C024BE91L\",\"ts\":\"1500000000.000100\"}";
+
+    private WebhookStub stub;
+    private String apiUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new WebhookStub();
+        stub.respond(200, POSTED);
+        apiUrl = stub.url("/api/chat.postMessage");
+    }
+
+    @After
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Test
+    public void followUpsArePostedAsThreadReplies() throws Exception {
+        final SlackClient client = new SlackClient(configuration(60));
+
+        client.send(message("first", "stream-1"));
+        client.send(message("second", "stream-1"));
+        client.send(message("other", "stream-2"));
+
+        assertEquals(3, stub.getBodies().size());
+        assertFalse(stub.getBodies().get(0).contains("thread_ts"));
+        assertTrue(stub.getBodies().get(1).contains("\"thread_ts\":\"1500000000.000100\""));
+        assertFalse(stub.getBodies().get(2).contains("thread_ts"));
+        assertEquals("Bearer xoxb-test", stub.getAuthorizations().get(0));
+    }
+
+    @Test
+    public void threadsAreSharedByClientsOfTheSameEndpoint() throws Exception {
+        new SlackClient(configuration(60)).send(message("first", "stream-1"));
+        new SlackClient(configuration(60)).send(message("second", "stream-1"));
+
+        assertFalse(stub.getBodies().get(0).contains("thread_ts"));
+        assertTrue(stub.getBodies().get(1).contains("\"thread_ts\":\"1500000000.000100\""));
+    }
+
+    @Test
+    public void messagesDoNotWaitForThreadToStart() throws Exception {
+        final SlackClient client = new SlackClient(configuration(60));
+        stub.setDelay(2L, TimeUnit.SECONDS);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.send(message("first", "stream-1"));
+                    started.countDown();
+                } catch (SlackClient.SlackClientException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        first.start();
+        while (stub.getBodies().isEmpty()) {
+            Thread.sleep(10L);
+        }
+
+        stub.setDelay(0L, TimeUnit.MILLISECONDS);
+        client.send(message("second", "stream-1"));
+        assertEquals(1L, started.getCount());
+        assertFalse(stub.getBodies().get(1).contains("thread_ts"));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        client.send(message("third", "stream-1"));
+        assertTrue(stub.getBodies().get(2).contains("\"thread_ts\":\"1500000000.000100\""));
+    }
+
+    @Test
+    public void rateLimitIsKeyedByTokenAndChannel() {
+        final Configuration configuration = configuration(60);
+        final String key = new SlackClient(configuration, new SlackTarget(apiUrl, "#alerts"), SlackMetrics.unregistered()).getRateLimitKey();
+
+        assertEquals(key, new SlackClient(configuration, new SlackTarget(apiUrl, "#alerts"), SlackMetrics.unregistered()).getRateLimitKey());
+        assertFalse(key.equals(new SlackClient(configuration, new SlackTarget(apiUrl, "#other"), SlackMetrics.unregistered()).getRateLimitKey()));
+        final Configuration otherToken = new Configuration(ImmutableMap.<String, Object>of(
+                SlackPluginBase.CK_BOT_TOKEN, "xoxb-other",
+                SlackPluginBase.CK_API_URL, apiUrl));
+        assertFalse(key.equals(new SlackClient(otherToken, new SlackTarget(apiUrl, "#alerts"), SlackMetrics.unregistered()).getRateLimitKey()));
+        assertFalse(key.contains("xoxb-test"));
+    }
+
+    @Test
+    public void threadingCanBeDisabled() throws Exception {
+        final SlackClient client = new SlackClient(configuration(0));
+
+        client.send(message("first", "stream-1"));
+        client.send(message("second", "stream-1"));
+
+        assertFalse(stub.getBodies().get(1).contains("thread_ts"));
+    }
+
+    @Test
+    public void postedMessagesAreUpdated() throws Exception {
+        final SlackClient client = new SlackClient(configuration(60));
+        final SlackMessage message = message("first", "stream-1");
+        client.send(message);
+        assertEquals("C024BE91L", message.getPostedChannel());
+        assertEquals("1500000000.000100", message.getPostedTs());
+
+        final SlackMessage update = new SlackMessage("danger", "first (2 times)", null, null);
+        update.setPosted(message.getPostedChannel(), message.getPostedTs());
+        client.send(update);
+
+        assertEquals("/api/chat.update", stub.getPaths().get(1));
+        assertTrue(stub.getBodies().get(1).startsWith("{\"channel\":\"C024BE91L\",\"ts\":\"1500000000.000100\","));
+        assertFalse(stub.getBodies().get(1).contains("thread_ts"));
+    }
+
+    @Test
+    public void apiErrorsAreReported() throws Exception {
+        final SlackClient client = new SlackClient(configuration(60));
+        stub.respond(200, "{\"ok\":false,\"error\":\"channel_not_found\"}");
+
+        try {
+            client.send(message("first", "stream-1"));
+            fail("Expected SlackClientException");
+        } catch (SlackClient.SlackClientException e) {
+            assertTrue(e.getMessage().contains("channel_not_found"));
+            assertFalse(e.isRetryable());
+        }
+    }
+
+    private Configuration configuration(int threadTtl) {
+        return new Configuration(ImmutableMap.<String, Object>of(
+                SlackPluginBase.CK_BOT_TOKEN, "xoxb-test",
+                SlackPluginBase.CK_API_URL, apiUrl,
+                SlackPluginBase.CK_CHANNEL, "#alerts",
+                SlackPluginBase.CK_THREAD_TTL, threadTtl,
+                SlackPluginBase.CK_CIRCUIT_FAILURE_RATE, 0));
+    }
+
+    private static SlackMessage message(String text, String threadKey) {
+        final SlackMessage message = new SlackMessage("danger", text, null, "#alerts");
+        message.setThreadKey(threadKey);
+        return message;
+    }
+}
@@ -0,0 +1,83 @@
+package org.graylog2.plugins.slack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SlackMessageTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void getJsonStringContainsConstantParameters() throws IOException {
+        final JsonNode json = objectMapper.readTree(new SlackMessage("#FF0000", "text", null, "#channel").getJsonString());
+
+        assertEquals("#channel", json.get("channel").asText());
+        assertEquals("1", json.get("link_names").asText());
+        assertEquals("none", json.get("parse").asText());
+        assertEquals("graylog", json.get("username").asText());
+        assertEquals("text", json.get("text").asText());
+        assertFalse(json.has("attachments"));
+    }
+
+    @Test
+    public void getJsonStringEscapesChannelAndText() throws IOException {
+        final SlackMessage message = new SlackMessage("#FF0000", "\"quoted\"\nünïcödé", null, "#chan\"nel");
+        final JsonNode json = objectMapper.readTree(message.getJsonBytes());
+
+        assertEquals("#chan\"nel", json.get("channel").asText());
+        assertEquals("\"quoted\"\nünïcödé", json.get("text").asText());
+    }
+
+    @Test
+    public void getJsonStringRendersAttachments() throws IOException {
+        final SlackMessage message = new SlackMessage("#FF0000", "text", null, "#channel");
+        message.addAttachment(new SlackMessage.AttachmentField("Source", "example.org", true));
+        message.addAttachment(new SlackMessage.Attachment("fallback", "message", null, "#00FF00",
+                ImmutableList.of(new SlackMessage.AttachmentField("Level", "3", false))));
+
+        final JsonNode attachments = objectMapper.readTree(message.getJsonString()).get("attachments");
+
+        assertEquals(2, attachments.size());
+        assertEquals("Alert details", attachments.get(0).get("fallback").asText());
+        assertEquals("#FF0000", attachments.get(0).get("color").asText());
+        assertEquals("example.org", attachments.get(0).get("fields").get(0).get("value").asText());
+        assertEquals(true, attachments.get(0).get("fields").get(0).get("short").asBoolean());
+        assertEquals("message", attachments.get(1).get("text").asText());
+        assertEquals("#00FF00", attachments.get(1).get("color").asText());
+        assertFalse(attachments.get(1).has("pretext"));
+    }
+
+    @Test
+    public void customMessageReplacesTextAndAttachments() throws IOException {
+        final SlackMessage message = new SlackMessage("#FF0000", "text", "custom", "#channel");
+        message.addAttachment(new SlackMessage.AttachmentField("Source", "example.org", true));
+
+        final JsonNode json = objectMapper.readTree(message.getJsonString());
+
+        assertEquals("custom", json.get("text").asText());
+        assertFalse(json.has("attachments"));
+    }
+
+    @Test
+    public void forChannelsOnlyReplacesChannel() {
+        final SlackMessage message = new SlackMessage("#FF0000", "text", null, null);
+        message.addAttachment(new SlackMessage.AttachmentField("Source", "example.org", true));
+
+        final List<SlackMessage> copies = message.forChannels(ImmutableList.of("#team", "@on\"call"));
+
+        assertEquals(2, copies.size());
+        for (int i = 0; i < copies.size(); i++) {
+            final String channel = i == 0 ? "#team" : "@on\"call";
+            final SlackMessage expected = new SlackMessage("#FF0000", "text", null, channel);
+            expected.addAttachment(new SlackMessage.AttachmentField("Source", "example.org", true));
+            assertEquals(expected.getJsonString(), copies.get(i).getJsonString());
+        }
+    }
+}
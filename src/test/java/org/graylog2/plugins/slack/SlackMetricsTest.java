@@ -0,0 +1,36 @@
+package org.graylog2.plugins.slack;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SlackMetricsTest {
+    @Test
+    public void removeGaugesLeavesGaugesOfNewerInstances() {
+        final MetricRegistry registry = new MetricRegistry();
+        final SlackMetrics stopped = new SlackMetrics(registry, "test");
+        final SlackMetrics started = new SlackMetrics(registry, "test");
+        final Gauge<Integer> gauge = constant(2);
+
+        stopped.registerGauge("queueSize", constant(1));
+        started.registerGauge("queueSize", gauge);
+        stopped.removeGauges();
+
+        assertSame(gauge, registry.getGauges().get("test.queueSize"));
+
+        started.removeGauges();
+        assertNull(registry.getGauges().get("test.queueSize"));
+    }
+
+    private static Gauge<Integer> constant(final int value) {
+        return new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return value;
+            }
+        };
+    }
+}
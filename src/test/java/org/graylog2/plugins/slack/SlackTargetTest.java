@@ -0,0 +1,39 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.configuration.ConfigurationException;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlackTargetTest {
+    @Test
+    public void singleWebhookIsCombinedWithEveryChannel() throws ConfigurationException {
+        final List<SlackTarget> targets = SlackTarget.parse(configuration("https://example.org/hook", "#team, #on-call"));
+
+        assertEquals(2, targets.size());
+        assertEquals("https://example.org/hook", targets.get(1).getWebhookUrl());
+        assertEquals("#on-call", targets.get(1).getChannel());
+    }
+
+    @Test
+    public void webhooksAndChannelsArePairedInOrder() throws ConfigurationException {
+        final List<SlackTarget> targets = SlackTarget.parse(configuration("https://example.org/a,https://example.org/b", "#a,#b"));
+
+        assertEquals(2, targets.size());
+        assertEquals("https://example.org/b", targets.get(1).getWebhookUrl());
+        assertEquals("#b", targets.get(1).getChannel());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void mismatchingNumbersOfTargetsAreRejected() throws ConfigurationException {
+        SlackTarget.parse(configuration("https://example.org/a,https://example.org/b", "#a,#b,#c"));
+    }
+
+    private static Configuration configuration(String webhookUrls, String channels) {
+        return new Configuration(ImmutableMap.<String, Object>of("webhook_url", webhookUrls, "channel", channels));
+    }
+}
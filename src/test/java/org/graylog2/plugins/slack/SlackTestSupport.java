@@ -0,0 +1,213 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test doubles shared by the tests.
+ */
+public final class SlackTestSupport {
+    private SlackTestSupport() {
+    }
+
+    public static SlackMessage message(String text) {
+        return new SlackMessage("#FF0000", text, null, "#test_channel");
+    }
+
+    /**
+     * Ticker which only moves when it's told to.
+     */
+    public static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        public void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+
+    /**
+     * Client which records the messages instead of posting them. If a latch is given, every request waits for
+     * it to be released before it completes.
+     */
+    public static class RecordingClient extends SlackClient {
+        private final List<SlackMessage> sent = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        public RecordingClient() {
+            this(new CountDownLatch(0));
+        }
+
+        public RecordingClient(CountDownLatch release) {
+            super(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/")));
+            this.release = release;
+        }
+
+        @Override
+        public void send(SlackMessage message) throws SlackClientException {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sent.add(message);
+        }
+
+        public List<SlackMessage> getSent() {
+            return sent;
+        }
+
+        /**
+         * Waits until the first request has started.
+         */
+        public boolean awaitStarted(long timeout, TimeUnit unit) throws InterruptedException {
+            return started.await(timeout, unit);
+        }
+    }
+
+    /**
+     * In-process stand-in for a Slack webhook or the Web API, listening on all paths of a local port. It answers
+     * with the given status and body after an optional delay, and can reject a share of the requests with
+     * HTTP 429. Unless it's created for benchmarks, it records the requests.
+     */
+    public static class WebhookStub implements HttpHandler {
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final boolean recording;
+        private final List<String> bodies = new CopyOnWriteArrayList<>();
+        private final List<String> paths = new CopyOnWriteArrayList<>();
+        private final List<String> authorizations = new CopyOnWriteArrayList<>();
+        private final Set<String> clients = ConcurrentHashMap.newKeySet();
+        private final AtomicLong requests = new AtomicLong();
+        private volatile int status = 200;
+        private volatile String response = "ok";
+        private volatile long delayMillis;
+        private volatile int rateLimitedPercent;
+        private volatile String lastContentLength;
+
+        public WebhookStub() throws IOException {
+            this(true);
+        }
+
+        public WebhookStub(boolean recording) throws IOException {
+            this.recording = recording;
+            this.executor = Executors.newCachedThreadPool();
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            this.server.createContext("/", this);
+            this.server.setExecutor(executor);
+            this.server.start();
+        }
+
+        public void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        public String url(String path) {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        }
+
+        public void respond(int status, String response) {
+            this.status = status;
+            this.response = response;
+        }
+
+        public void setDelay(long delay, TimeUnit unit) {
+            this.delayMillis = unit.toMillis(delay);
+        }
+
+        public void setRateLimitedPercent(int rateLimitedPercent) {
+            this.rateLimitedPercent = rateLimitedPercent;
+        }
+
+        /**
+         * @return the request bodies, decompressed if they have been sent gzip-compressed.
+         */
+        public List<String> getBodies() {
+            return bodies;
+        }
+
+        public List<String> getPaths() {
+            return paths;
+        }
+
+        /**
+         * @return the {@code Authorization} header of each request, {@code null} for requests without.
+         */
+        public List<String> getAuthorizations() {
+            return authorizations;
+        }
+
+        /**
+         * @return the remote addresses requests came from, i. e. the connections used.
+         */
+        public Set<String> getClients() {
+            return clients;
+        }
+
+        public String getLastContentLength() {
+            return lastContentLength;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (recording) {
+                paths.add(exchange.getRequestURI().getPath());
+                authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                clients.add(exchange.getRemoteAddress().toString());
+                lastContentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+                final InputStream body = "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                        ? new GZIPInputStream(exchange.getRequestBody())
+                        : exchange.getRequestBody();
+                bodies.add(new String(ByteStreams.toByteArray(body), Charsets.UTF_8));
+            } else {
+                ByteStreams.exhaust(exchange.getRequestBody());
+            }
+
+            if (delayMillis > 0L) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            final boolean rateLimited = requests.incrementAndGet() % 100 < rateLimitedPercent;
+            if (rateLimited) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+            }
+            final byte[] bytes = (rateLimited ? "rate_limited" : response).getBytes(Charsets.UTF_8);
+            exchange.sendResponseHeaders(rateLimited ? 429 : status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.graylog2.plugins.slack;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackTextTest {
+    @Test
+    public void shortTextsAreUnchanged() {
+        final String text = "Grüße";
+        assertSame(text, SlackText.truncate(text, 100));
+        assertSame(text, SlackText.truncate(text, 7));
+    }
+
+    @Test
+    public void truncateKeepsWithinByteLimit() {
+        final String truncated = SlackText.truncate(Strings.repeat("ä", 100), 20);
+
+        assertEquals(Strings.repeat("ä", 8) + SlackText.ELLIPSIS, truncated);
+        assertTrue(truncated.getBytes(StandardCharsets.UTF_8).length <= 20);
+    }
+
+    @Test
+    public void truncateDoesNotSplitSurrogatePairs() {
+        final String truncated = SlackText.truncate("a😀😀😀", 9);
+
+        assertEquals("a😀" + SlackText.ELLIPSIS, truncated);
+    }
+
+    @Test
+    public void splitPrefersLineBreaks() {
+        final String text = Strings.repeat("x", 30) + "\n" + Strings.repeat("y", 30) + "\n" + Strings.repeat("z", 10);
+
+        final List<String> parts = SlackText.split(text, 40);
+
+        assertEquals(3, parts.size());
+        assertEquals(Strings.repeat("x", 30) + "\n", parts.get(0));
+        assertEquals(text, parts.get(0) + parts.get(1) + parts.get(2));
+    }
+
+    @Test
+    public void splitPartsFitIntoLimit() {
+        final String text = Strings.repeat("ö", 1000);
+
+        final List<String> parts = SlackText.split(text, 100);
+
+        assertEquals(20, parts.size());
+        for (String part : parts) {
+            assertTrue(part.getBytes(StandardCharsets.UTF_8).length <= 100);
+        }
+    }
+
+    @Test
+    public void utf8LengthMatchesEncoding() {
+        final String text = "a ä € 😀";
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, SlackText.utf8Length(text));
+    }
+}
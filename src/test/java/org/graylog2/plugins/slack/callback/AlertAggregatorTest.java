@@ -0,0 +1,121 @@
+package org.graylog2.plugins.slack.callback;
+
+import org.graylog2.plugins.slack.SlackTestSupport.FakeTicker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AlertAggregatorTest {
+    private static final long WINDOW = TimeUnit.MINUTES.toNanos(5);
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final List<Integer> closed = new ArrayList<>();
+    private final AlertAggregator.WindowListener listener = new AlertAggregator.WindowListener() {
+        @Override
+        public void onWindowClosed(AlertAggregator.Aggregate aggregate) {
+            closed.add(aggregate.getCount());
+        }
+    };
+
+    @Test
+    public void repeatedFiringsAreCountedWithinWindow() {
+        final AlertAggregator aggregator = new AlertAggregator(10, ticker);
+
+        final AlertAggregator.Firing first = aggregator.fire("stream/condition", WINDOW, listener);
+        final AlertAggregator.Firing second = aggregator.fire("stream/condition", WINDOW, listener);
+        final AlertAggregator.Firing other = aggregator.fire("stream/other", WINDOW, listener);
+
+        assertTrue(first.isFirst());
+        assertFalse(second.isFirst());
+        assertEquals(2, second.getCount());
+        assertSame(first.getAggregate(), second.getAggregate());
+        assertTrue(other.isFirst());
+    }
+
+    @Test
+    public void windowIsClosedOnceWhenOver() {
+        final AlertAggregator aggregator = new AlertAggregator(10, ticker);
+        final AlertAggregator.Firing first = aggregator.fire("key", WINDOW, listener);
+        aggregator.fire("key", WINDOW, listener);
+        aggregator.fire("key", WINDOW, listener);
+
+        aggregator.expire();
+        assertTrue(closed.isEmpty());
+
+        ticker.advance(5, TimeUnit.MINUTES);
+        aggregator.expire();
+        aggregator.expire();
+        assertEquals(1, closed.size());
+        assertEquals(3, (int) closed.get(0));
+        assertEquals(0, aggregator.size());
+
+        final AlertAggregator.Firing next = aggregator.fire("key", WINDOW, listener);
+        assertTrue(next.isFirst());
+        assertNotSame(first.getAggregate(), next.getAggregate());
+    }
+
+    @Test
+    public void firingAfterWindowClosesItAndOpensNewOne() {
+        final AlertAggregator aggregator = new AlertAggregator(10, ticker);
+        aggregator.fire("key", WINDOW, listener);
+        aggregator.fire("key", WINDOW, listener);
+
+        ticker.advance(6, TimeUnit.MINUTES);
+        assertTrue(aggregator.fire("key", WINDOW, listener).isFirst());
+        assertEquals(1, closed.size());
+        assertEquals(2, (int) closed.get(0));
+    }
+
+    @Test
+    public void evictedAlertsAreClosed() {
+        final AlertAggregator aggregator = new AlertAggregator(1, ticker);
+        aggregator.fire("a", WINDOW, listener);
+        aggregator.fire("b", WINDOW, listener);
+
+        assertEquals(1, aggregator.size());
+        assertEquals(1, closed.size());
+    }
+
+    @Test
+    public void firingsDoNotCloseWindowsOnCallingThread() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final AlertAggregator aggregator = new AlertAggregator(1, ticker, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        aggregator.fire("a", WINDOW, listener);
+        // Evicts the window of "a".
+        aggregator.fire("b", WINDOW, listener);
+        ticker.advance(6, TimeUnit.MINUTES);
+        // Closes the window of "b", which is over.
+        aggregator.fire("b", WINDOW, listener);
+        assertTrue(closed.isEmpty());
+
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        assertEquals(2, closed.size());
+    }
+
+    @Test
+    public void firingsAreReportedOnce() {
+        final AlertAggregator aggregator = new AlertAggregator(10, ticker);
+        final AlertAggregator.Aggregate aggregate = aggregator.fire("key", WINDOW, listener).getAggregate();
+        aggregator.fire("key", WINDOW, listener);
+
+        assertTrue(aggregate.report(2));
+        assertFalse(aggregate.report(2));
+        assertFalse(aggregate.report(1));
+    }
+}
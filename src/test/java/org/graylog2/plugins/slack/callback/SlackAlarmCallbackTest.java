@@ -1,18 +1,39 @@
 package org.graylog2.plugins.slack.callback;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.alarms.callbacks.AlarmCallbackConfigurationException;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugins.slack.SlackTestSupport.FakeTicker;
+import org.graylog2.plugins.slack.SlackTestSupport.WebhookStub;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.streams.StreamImpl;
+import org.joda.time.DateTime;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class SlackAlarmCallbackTest {
     private static final ImmutableMap<String, Object> VALID_CONFIG_SOURCE = ImmutableMap.<String, Object>builder()
@@ -22,10 +43,22 @@ public class SlackAlarmCallbackTest {
             .put("custom_message", "test_message")
             .build();
     private SlackAlarmCallback alarmCallback;
+    private WebhookStub webhook;
+    private String webhookUrl;
+    private final SlackDeliveryService deliveryService = new SlackDeliveryService(1);
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException {
         alarmCallback = new SlackAlarmCallback();
+
+        webhook = new WebhookStub();
+        webhookUrl = webhook.url("/webhook");
+    }
+
+    @After
+    public void tearDown() {
+        webhook.stop();
+        deliveryService.shutdown();
     }
 
     @Test
@@ -60,12 +93,202 @@ public class SlackAlarmCallbackTest {
         alarmCallback.initialize(validConfigurationWithValue("channel", "@john"));
     }
 
+    @Test
+    public void everyTargetHasOneCircuitStateGauge() throws AlarmCallbackConfigurationException {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final Configuration configuration = validConfigurationWithValue("channel", "#a,#b");
+
+        // Graylog creates a callback for every alert.
+        new SlackAlarmCallback(metricRegistry, deliveryService).initialize(configuration);
+        new SlackAlarmCallback(metricRegistry, deliveryService).initialize(configuration);
+
+        final List<String> names = Lists.newArrayList();
+        for (String name : metricRegistry.getGauges().keySet()) {
+            if (name.contains(".circuitState.")) {
+                names.add(name);
+            }
+        }
+        assertEquals(2, names.size());
+        assertTrue(names.get(0), names.get(0).contains("www.example.org") && names.get(0).endsWith("#a"));
+        assertTrue(names.get(1), names.get(1).endsWith("#b"));
+    }
+
     @Test
     public void testGetRequestedConfiguration() {
         assertThat(alarmCallback.getRequestedConfiguration().asList().keySet(),
                 hasItems("webhook_url", "channel", "color", "custom_message"));
     }
 
+    @Test
+    @SuppressWarnings("deprecation")
+    public void alarmBacklogIsLimitedByCondition() {
+        final AlertCondition.CheckResult result = checkResult(condition("condition", 2), matchingMessages(3));
+
+        final List<Message> backlog = alarmCallback.getAlarmBacklog(result);
+
+        assertEquals(2, backlog.size());
+        assertEquals("message 0", backlog.get(0).getMessage());
+        assertEquals("message 1", backlog.get(1).getMessage());
+    }
+
+    @Test
+    public void backlogIsAttachedUpToConfiguredItems() throws AlarmCallbackConfigurationException {
+        final Map<String, Object> config = Maps.newHashMap(VALID_CONFIG_SOURCE);
+        config.remove("custom_message");
+        config.put("backlog_items", 2);
+        alarmCallback.initialize(new Configuration(config));
+        final AlertCondition.CheckResult result = checkResult(condition("condition", 5), matchingMessages(3));
+
+        final String json = alarmCallback.createMessage(stream(), result, null).getJsonString();
+
+        assertThat(json, containsString("message 0"));
+        assertThat(json, containsString("message 1"));
+        assertThat(json, not(containsString("message 2")));
+    }
+
+    @Test
+    public void backlogFieldsAreTruncated() throws AlarmCallbackConfigurationException {
+        final Map<String, Object> config = Maps.newHashMap(VALID_CONFIG_SOURCE);
+        config.remove("custom_message");
+        config.put("backlog_field_length", 7);
+        alarmCallback.initialize(new Configuration(config));
+        final AlertCondition.CheckResult result = checkResult(condition("condition", 1), matchingMessages(1));
+
+        final String json = alarmCallback.createMessage(stream(), result, null).getJsonString();
+
+        assertThat(json, containsString("message…"));
+        assertThat(json, not(containsString("message 0")));
+    }
+
+    @Test
+    public void repeatedFiringsToWebhooksAreSummarized() throws Exception {
+        final FakeTicker ticker = new FakeTicker();
+        final AlertAggregator aggregator = new AlertAggregator(100, ticker);
+        final SlackAlarmCallback callback = aggregatingCallback(aggregator, "#test_channel");
+        final AlertCondition.CheckResult result = checkResult(condition("condition", 0), Collections.<MessageSummary>emptyList());
+
+        for (int i = 0; i < 3; i++) {
+            callback.call(stream(), result);
+        }
+        // Webhook messages can't be updated, so the repeats wait for the end of the window.
+        assertEquals(1, webhook.getBodies().size());
+
+        ticker.advance(2, TimeUnit.MINUTES);
+        aggregator.expire();
+
+        assertEquals(2, webhook.getBodies().size());
+        assertThat(webhook.getBodies().get(1), containsString("fired 2 more time(s)"));
+    }
+
+    @Test
+    public void callbacksWithDifferentTargetsAreAggregatedSeparately() throws Exception {
+        final AlertAggregator aggregator = new AlertAggregator(100, new FakeTicker());
+        final AlertCondition.CheckResult result = checkResult(condition("condition", 0), Collections.<MessageSummary>emptyList());
+
+        aggregatingCallback(aggregator, "#team").call(stream(), result);
+        aggregatingCallback(aggregator, "#on-call").call(stream(), result);
+
+        assertEquals(2, webhook.getBodies().size());
+        assertThat(webhook.getBodies().get(0), containsString("#team"));
+        assertThat(webhook.getBodies().get(1), containsString("#on-call"));
+    }
+
+    private SlackAlarmCallback aggregatingCallback(AlertAggregator aggregator, String channel) throws AlarmCallbackConfigurationException {
+        final Map<String, Object> config = Maps.newHashMap(VALID_CONFIG_SOURCE);
+        config.remove("custom_message");
+        config.put("webhook_url", webhookUrl);
+        config.put("channel", channel);
+        config.put("aggregation_window", 1);
+        final SlackAlarmCallback callback = new SlackAlarmCallback(new MetricRegistry(), deliveryService, aggregator);
+        callback.initialize(new Configuration(config));
+        return callback;
+    }
+
+    static Stream stream() {
+        return new StreamImpl(ImmutableMap.<String, Object>of("_id", "stream", "title", "Test stream"));
+    }
+
+    static List<MessageSummary> matchingMessages(int count) {
+        final ImmutableList.Builder<MessageSummary> messages = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            messages.add(new MessageSummary("graylog_0", new Message("message " + i, "host-" + i, DateTime.now())));
+        }
+        return messages.build();
+    }
+
+    static AlertCondition condition(final String id, final int backlog) {
+        return new AlertCondition() {
+            @Override
+            public String getDescription() {
+                return "Test condition";
+            }
+
+            @Override
+            public String getId() {
+                return id;
+            }
+
+            @Override
+            public DateTime getCreatedAt() {
+                return null;
+            }
+
+            @Override
+            public String getCreatorUserId() {
+                return null;
+            }
+
+            @Override
+            public Stream getStream() {
+                return null;
+            }
+
+            @Override
+            public Integer getBacklog() {
+                return backlog;
+            }
+
+            @Override
+            public int getGrace() {
+                return 0;
+            }
+
+            @Override
+            public String getTypeString() {
+                return "test";
+            }
+        };
+    }
+
+    static AlertCondition.CheckResult checkResult(final AlertCondition condition, final List<MessageSummary> matchingMessages) {
+        return new AlertCondition.CheckResult() {
+            @Override
+            public boolean isTriggered() {
+                return true;
+            }
+
+            @Override
+            public String getResultDescription() {
+                return "Stream had messages";
+            }
+
+            @Override
+            public AlertCondition getTriggeredCondition() {
+                return condition;
+            }
+
+            @Override
+            public DateTime getTriggeredAt() {
+                return DateTime.now();
+            }
+
+            @Override
+            public List<MessageSummary> getMatchingMessages() {
+                return matchingMessages;
+            }
+        };
+    }
+
     private Configuration validConfigurationWithout(final String key) {
         return new Configuration(Maps.filterEntries(VALID_CONFIG_SOURCE, new Predicate<Map.Entry<String, Object>>() {
             @Override
@@ -81,6 +304,4 @@ public class SlackAlarmCallbackTest {
 
         return new Configuration(confCopy);
     }
-
-
 }
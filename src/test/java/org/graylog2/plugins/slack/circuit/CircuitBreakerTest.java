@@ -0,0 +1,58 @@
+package org.graylog2.plugins.slack.circuit;
+
+import org.graylog2.plugins.slack.SlackTestSupport.FakeTicker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    @Test
+    public void opensWhenFailureRateIsReached() {
+        final CircuitBreaker breaker = new CircuitBreaker("test", 50, 4, 10, TimeUnit.SECONDS, new FakeTicker());
+
+        record(breaker, true);
+        record(breaker, false);
+        record(breaker, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        record(breaker, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void halfOpenLetsSingleProbeThrough() {
+        final FakeTicker ticker = new FakeTicker();
+        final CircuitBreaker breaker = new CircuitBreaker("test", 50, 2, 10, TimeUnit.SECONDS, ticker);
+        record(breaker, false);
+        record(breaker, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        ticker.advance(10, TimeUnit.SECONDS);
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.tryAcquirePermission());
+
+        // A failed probe opens the breaker for another cool-down period.
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        ticker.advance(10, TimeUnit.SECONDS);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    private static void record(CircuitBreaker breaker, boolean success) {
+        assertTrue(breaker.tryAcquirePermission());
+        if (success) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.graylog2.plugins.slack.cluster;
+
+import org.graylog2.plugins.slack.SlackTestSupport.FakeTicker;
+import org.graylog2.plugins.slack.ratelimit.SlackRateLimiters;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClusterRateLimiterTest {
+    private static final String WEBHOOK_URL = "https://hooks.slack.com/services/T0/B0/secret";
+
+    @Test
+    public void nodesSplitRateLimit() {
+        final FakeTicker ticker = new FakeTicker();
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore(ticker);
+        final TokenBucket bucketA = new TokenBucket(1.0d, 2, ticker);
+        final TokenBucket bucketB = new TokenBucket(1.0d, 2, ticker);
+        final ClusterRateLimiter nodeA = new ClusterRateLimiter(store, "a", 0L);
+        final ClusterRateLimiter nodeB = new ClusterRateLimiter(store, "b", 0L);
+        nodeA.register(WEBHOOK_URL, bucketA);
+        nodeB.register(WEBHOOK_URL, bucketB);
+
+        nodeA.renewAll();
+        nodeB.renewAll();
+        nodeA.renewAll();
+
+        // Each node gets half of the rate and burst.
+        assertEquals(1, bucketA.getBurst());
+        assertEquals(0L, bucketA.tryAcquire());
+        assertEquals(TimeUnit.SECONDS.toNanos(2L), bucketA.tryAcquire());
+        assertEquals(1, bucketB.getBurst());
+    }
+
+    @Test
+    public void shareGrowsWhenNodeLeaves() {
+        final FakeTicker ticker = new FakeTicker();
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore(ticker);
+        final TokenBucket bucketA = new TokenBucket(1.0d, 2, ticker);
+        final ClusterRateLimiter nodeA = new ClusterRateLimiter(store, "a", 0L);
+        final ClusterRateLimiter nodeB = new ClusterRateLimiter(store, "b", 0L);
+        nodeA.register(WEBHOOK_URL, bucketA);
+        nodeB.register(WEBHOOK_URL, new TokenBucket(1.0d, 2, ticker));
+        nodeB.renewAll();
+        nodeA.renewAll();
+        assertEquals(1, bucketA.getBurst());
+
+        // Node B stops renewing its lease.
+        ticker.advance(ClusterRateLimiter.LEASE_TTL_MILLIS + 1L, TimeUnit.MILLISECONDS);
+        nodeA.renewAll();
+
+        assertEquals(2, bucketA.getBurst());
+    }
+
+    @Test
+    public void unregisteredNodeHandsBackItsShare() {
+        final FakeTicker ticker = new FakeTicker();
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore(ticker);
+        final TokenBucket bucketA = new TokenBucket(1.0d, 2, ticker);
+        final TokenBucket bucketB = new TokenBucket(1.0d, 2, ticker);
+        final ClusterRateLimiter nodeA = new ClusterRateLimiter(store, "a", 0L);
+        final ClusterRateLimiter nodeB = new ClusterRateLimiter(store, "b", 0L);
+        // Two outputs of node A post to the webhook.
+        nodeA.register(WEBHOOK_URL, bucketA);
+        nodeA.register(WEBHOOK_URL, bucketA);
+        nodeB.register(WEBHOOK_URL, bucketB);
+        nodeA.renewAll();
+        assertEquals(1, bucketA.getBurst());
+
+        nodeA.unregister(WEBHOOK_URL);
+        nodeB.renewAll();
+        assertEquals(1, bucketB.getBurst());
+
+        // The lease is released with the last registration, without waiting for it to expire.
+        nodeA.unregister(WEBHOOK_URL);
+        assertEquals(2, bucketA.getBurst());
+        nodeB.renewAll();
+        assertEquals(2, bucketB.getBurst());
+    }
+
+    @Test
+    public void changedRateKeepsShare() {
+        final FakeTicker ticker = new FakeTicker();
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore(ticker);
+        final TokenBucket bucketA = new TokenBucket(1.0d, 2, ticker);
+        final ClusterRateLimiter nodeA = new ClusterRateLimiter(store, "a", 0L);
+        final ClusterRateLimiter nodeB = new ClusterRateLimiter(store, "b", 0L);
+        nodeB.register(WEBHOOK_URL, new TokenBucket(1.0d, 2, ticker));
+        nodeA.register(WEBHOOK_URL, bucketA);
+
+        // The output is restarted with a new configuration, the new one registers before the old one is stopped.
+        bucketA.setRate(2.0d, 8);
+        nodeA.register(WEBHOOK_URL, bucketA);
+        nodeA.unregister(WEBHOOK_URL);
+
+        // Half of the new rate and burst.
+        assertEquals(4, bucketA.getBurst());
+        assertEquals(0L, bucketA.tryAcquire());
+        assertEquals(TimeUnit.SECONDS.toNanos(1L), bucketA.tryAcquire());
+    }
+
+    @Test
+    public void renewalAfterRateUpdateKeepsShare() {
+        final String webhookUrl = "https://hooks.slack.com/services/T0/B0/shared";
+        final FakeTicker ticker = new FakeTicker();
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore(ticker);
+        final TokenBucket bucketA = SlackRateLimiters.forWebhook(webhookUrl, 60, 2);
+        final ClusterRateLimiter nodeA = new ClusterRateLimiter(store, "a", 0L);
+        final ClusterRateLimiter nodeB = new ClusterRateLimiter(store, "b", 0L);
+        nodeB.register(webhookUrl, new TokenBucket(1.0d, 2, ticker));
+        nodeA.register(webhookUrl, bucketA);
+        assertEquals(1, bucketA.getBurst());
+
+        // Another output saves a new limit for the webhook.
+        SlackRateLimiters.forWebhook(webhookUrl, 120, 8);
+        nodeA.renewAll();
+
+        assertEquals(4, bucketA.getBurst());
+        nodeA.unregister(webhookUrl);
+        assertEquals(8, bucketA.getBurst());
+    }
+
+    @Test
+    public void storeCountsLiveLeasesPerKey() {
+        final FakeTicker ticker = new FakeTicker();
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore(ticker);
+
+        assertEquals(1, store.renewLease("webhook", "a", 1000L));
+        assertEquals(2, store.renewLease("webhook", "b", 1000L));
+        assertEquals(2, store.renewLease("webhook", "a", 1000L));
+        assertEquals(1, store.renewLease("other", "a", 1000L));
+
+        ticker.advance(1001L, TimeUnit.MILLISECONDS);
+        assertEquals(1, store.renewLease("webhook", "a", 1000L));
+    }
+}
@@ -0,0 +1,182 @@
+package org.graylog2.plugins.slack.delivery;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackMetrics;
+import org.graylog2.plugins.slack.SlackTestSupport.RecordingClient;
+import org.graylog2.plugins.slack.ratelimit.ExponentialBackoff;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.graylog2.plugins.slack.SlackTestSupport.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackDeliveryQueueTest {
+    private final SlackDeliveryService service = new SlackDeliveryService(1);
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void stopDeliversQueuedMessages() throws Exception {
+        final RecordingClient client = new RecordingClient();
+        final SlackDeliveryQueue queue = queue(unlimited(client), SlackMetrics.unregistered(), 10, SlackDeliveryQueue.OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.submit(message("message " + i)));
+        }
+        queue.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(5, client.getSent().size());
+        assertFalse(queue.submit(message("too late")));
+    }
+
+    @Test
+    public void dropNewestRejectsMessagesWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient client = new RecordingClient(release);
+        final SlackMetrics metrics = SlackMetrics.unregistered();
+        final SlackDeliveryQueue queue = queue(unlimited(client), metrics, 1, SlackDeliveryQueue.OverflowPolicy.DROP_NEWEST);
+
+        // The first message is taken by the (blocked) worker, the second fills the queue.
+        queue.submit(message("first"));
+        client.awaitStarted(5, TimeUnit.SECONDS);
+        assertTrue(queue.submit(message("second")));
+        assertFalse(queue.submit(message("third")));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(1, metrics.dropped().getCount());
+
+        release.countDown();
+        queue.stop(5, TimeUnit.SECONDS);
+        assertEquals(2, client.getSent().size());
+    }
+
+    @Test
+    public void dropOldestReplacesQueuedMessage() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient client = new RecordingClient(release);
+        final SlackDeliveryQueue queue = queue(unlimited(client), SlackMetrics.unregistered(), 1, SlackDeliveryQueue.OverflowPolicy.DROP_OLDEST);
+
+        final SlackMessage third = message("third");
+        queue.submit(message("first"));
+        client.awaitStarted(5, TimeUnit.SECONDS);
+        assertTrue(queue.submit(message("second")));
+        assertTrue(queue.submit(third));
+        assertEquals(1, queue.getDroppedCount());
+
+        release.countDown();
+        queue.stop(5, TimeUnit.SECONDS);
+        assertEquals(2, client.getSent().size());
+        assertTrue(client.getSent().contains(third));
+    }
+
+    @Test
+    public void messageExpiresWhileQueued() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient client = new RecordingClient(release);
+        final SlackMetrics metrics = SlackMetrics.unregistered();
+        final SlackDeliveryQueue queue = withDeadline(unlimited(client), metrics, 50L);
+
+        queue.submit(message("first"));
+        client.awaitStarted(5, TimeUnit.SECONDS);
+        final SlackMessage second = message("second");
+        queue.submit(second);
+        // The second message waits behind the blocked first one until its deadline has passed.
+        TimeUnit.MILLISECONDS.sleep(200L);
+        release.countDown();
+        queue.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(1, client.getSent().size());
+        assertFalse(client.getSent().contains(second));
+        assertEquals(1, metrics.expired().getCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void messageExpiresWhileRetrying() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final SlackClient client = new SlackClient(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/"))) {
+            @Override
+            public void send(SlackMessage message) throws SlackClientException {
+                attempts.incrementAndGet();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(60L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SlackClientException("Service unavailable", 503, -1L);
+            }
+        };
+        final RateLimitedSender sender = new RateLimitedSender(client, new TokenBucket(1000.0d, 1000), new ExponentialBackoff(1L, 1L), 100);
+        final SlackMetrics metrics = SlackMetrics.unregistered();
+        final SlackDeliveryQueue queue = withDeadline(sender, metrics, 100L);
+
+        queue.submit(message("test"));
+        queue.stop(5, TimeUnit.SECONDS);
+
+        // Retries stop at the deadline instead of using up all of them.
+        assertTrue("attempts: " + attempts.get(), attempts.get() >= 2 && attempts.get() < 100);
+        assertEquals(1, metrics.expired().getCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void retryDoesNotHoldUpWorker() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch failed = new CountDownLatch(1);
+        final SlackClient failing = new SlackClient(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/failing"))) {
+            @Override
+            public void send(SlackMessage message) throws SlackClientException {
+                attempts.incrementAndGet();
+                failed.countDown();
+                throw new SlackClientException("Service unavailable", 503, -1L);
+            }
+        };
+        final ExponentialBackoff slowBackoff = new ExponentialBackoff(0L, 0L) {
+            @Override
+            public long delayMillis(int attempt) {
+                return TimeUnit.MINUTES.toMillis(1L);
+            }
+        };
+        final SlackDeliveryQueue failingQueue = queue(new RateLimitedSender(failing, new TokenBucket(1000.0d, 1000), slowBackoff, 1),
+                SlackMetrics.unregistered(), 10, SlackDeliveryQueue.OverflowPolicy.BLOCK);
+        final RecordingClient client = new RecordingClient();
+        final SlackDeliveryQueue queue = queue(unlimited(client), SlackMetrics.unregistered(), 10, SlackDeliveryQueue.OverflowPolicy.BLOCK);
+
+        failingQueue.submit(message("failing"));
+        queue.submit(message("test"));
+        // The only worker is free for the other webhook while the failed message waits for its retry.
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        queue.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(1, client.getSent().size());
+        assertEquals(1, attempts.get());
+        failingQueue.stop(0, TimeUnit.SECONDS);
+    }
+
+    private SlackDeliveryQueue queue(RateLimitedSender sender, SlackMetrics metrics, int capacity, SlackDeliveryQueue.OverflowPolicy overflowPolicy) {
+        return new SlackDeliveryQueue(service, sender, metrics, capacity, 1, SlackDeliveryService.Priority.NORMAL, 1,
+                overflowPolicy, null, 0L);
+    }
+
+    private SlackDeliveryQueue withDeadline(RateLimitedSender sender, SlackMetrics metrics, long deadlineMillis) {
+        return new SlackDeliveryQueue(service, sender, metrics, 10, 1, SlackDeliveryService.Priority.NORMAL, 1,
+                SlackDeliveryQueue.OverflowPolicy.BLOCK, null, deadlineMillis);
+    }
+
+    private static RateLimitedSender unlimited(SlackClient client) {
+        return new RateLimitedSender(client, new TokenBucket(1000.0d, 1000));
+    }
+}
@@ -0,0 +1,110 @@
+package org.graylog2.plugins.slack.delivery;
+
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackMetrics;
+import org.graylog2.plugins.slack.SlackTestSupport.RecordingClient;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.graylog2.plugins.slack.SlackTestSupport.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlackDeliveryServiceTest {
+    private final SlackDeliveryService service = new SlackDeliveryService(1);
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void sendCompletesFuture() throws Exception {
+        final RecordingClient client = new RecordingClient();
+        final RateLimitedSender sender = new RateLimitedSender(client, new TokenBucket(1000.0d, 1000));
+
+        assertTrue(service.send(sender, message("alert"), SlackDeliveryService.Priority.HIGH, Long.MAX_VALUE).get(5, TimeUnit.SECONDS));
+        assertEquals(1, client.getSent().size());
+    }
+
+    @Test
+    public void sendReportsExpiredMessages() throws Exception {
+        final RecordingClient client = new RecordingClient();
+        final RateLimitedSender sender = new RateLimitedSender(client, new TokenBucket(1000.0d, 1000));
+
+        assertEquals(Boolean.FALSE, service.send(sender, message("late"), SlackDeliveryService.Priority.HIGH, System.nanoTime() - 1L).get(5, TimeUnit.SECONDS));
+        assertTrue(client.getSent().isEmpty());
+    }
+
+    @Test
+    public void noisyQueueDoesNotStarveQuietQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient client = new RecordingClient(release);
+        // Both queues post to the same webhook.
+        final TokenBucket bucket = new TokenBucket(1000.0d, 1000);
+        final SlackDeliveryQueue noisy = queue(new RateLimitedSender(client, bucket), SlackDeliveryService.Priority.NORMAL, 1);
+        final SlackDeliveryQueue quiet = queue(new RateLimitedSender(client, bucket), SlackDeliveryService.Priority.NORMAL, 3);
+
+        // The only worker is held up by the first message until both backlogs are queued.
+        noisy.submit(message("noisy"));
+        assertTrue(client.awaitStarted(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 29; i++) {
+            noisy.submit(message("noisy"));
+        }
+        final List<SlackMessage> quietMessages = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            quietMessages.add(message("quiet"));
+            quiet.submit(quietMessages.get(i));
+        }
+        release.countDown();
+        quiet.stop(5, TimeUnit.SECONDS);
+        noisy.stop(5, TimeUnit.SECONDS);
+
+        // With three times the weight, the quiet queue sends three messages for every noisy one.
+        final List<SlackMessage> sent = client.getSent();
+        assertEquals(36, sent.size());
+        int lastQuiet = -1;
+        for (SlackMessage message : quietMessages) {
+            lastQuiet = Math.max(lastQuiet, sent.indexOf(message));
+        }
+        final int noisySent = lastQuiet + 1 - quietMessages.size();
+        assertTrue("noisy messages sent before the last quiet one: " + noisySent, noisySent <= 3);
+    }
+
+    @Test
+    public void highPriorityMessagesJumpTheQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient client = new RecordingClient(release);
+        final TokenBucket bucket = new TokenBucket(1000.0d, 1000);
+        final SlackDeliveryQueue output = queue(new RateLimitedSender(client, bucket), SlackDeliveryService.Priority.NORMAL, 1);
+
+        output.submit(message("output"));
+        assertTrue(client.awaitStarted(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 29; i++) {
+            output.submit(message("output"));
+        }
+        final SlackMessage alert = message("alert");
+        final Future<Boolean> alertSent = service.send(new RateLimitedSender(client, bucket), alert, SlackDeliveryService.Priority.HIGH, Long.MAX_VALUE);
+        release.countDown();
+        assertTrue(alertSent.get(5, TimeUnit.SECONDS));
+        output.stop(5, TimeUnit.SECONDS);
+
+        // Only the message which was already being sent goes out before the alert.
+        assertEquals(31, client.getSent().size());
+        assertEquals(1, client.getSent().indexOf(alert));
+    }
+
+    private SlackDeliveryQueue queue(RateLimitedSender sender, SlackDeliveryService.Priority priority, int weight) {
+        return new SlackDeliveryQueue(service, sender, SlackMetrics.unregistered(), 100, 1, priority, weight,
+                SlackDeliveryQueue.OverflowPolicy.BLOCK, null, 0L);
+    }
+}
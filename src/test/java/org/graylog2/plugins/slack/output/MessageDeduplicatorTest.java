@@ -0,0 +1,91 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageDeduplicatorTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> summaries = new CopyOnWriteArrayList<>();
+    private final MessageDeduplicator.SummaryListener listener = new MessageDeduplicator.SummaryListener() {
+        @Override
+        public void onRepeated(String source, String message, long occurrences, long windowSeconds) {
+            summaries.add(source + ": " + message + " x" + occurrences + " in " + windowSeconds + "s");
+        }
+    };
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void repeatsAreSuppressedAndSummarized() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(60L, ImmutableList.<String>of(), 1000L, scheduler, listener);
+
+        assertTrue(deduplicator.shouldSend(new Message("error", "host-1", DateTime.now())));
+        assertFalse(deduplicator.shouldSend(new Message("error", "host-1", DateTime.now())));
+        assertFalse(deduplicator.shouldSend(new Message("error", "host-1", DateTime.now())));
+        assertTrue(deduplicator.shouldSend(new Message("error", "host-2", DateTime.now())));
+
+        deduplicator.stop();
+
+        assertEquals(ImmutableList.of("host-1: error x3 in 60s"), summaries);
+    }
+
+    @Test
+    public void configuredFieldsArePartOfTheKey() {
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(60L, ImmutableList.of("level"), 1000L, scheduler, listener);
+        final Message first = new Message("error", "host-1", DateTime.now());
+        first.addField("level", 3);
+        final Message second = new Message("error", "host-1", DateTime.now());
+        second.addField("level", 4);
+
+        assertTrue(deduplicator.shouldSend(first));
+        assertTrue(deduplicator.shouldSend(second));
+
+        deduplicator.stop();
+        assertTrue(summaries.isEmpty());
+    }
+
+    @Test
+    public void evictionDoesNotWaitForSummary() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch summarized = new CountDownLatch(1);
+        final MessageDeduplicator deduplicator = new MessageDeduplicator(60L, ImmutableList.<String>of(), 1L, scheduler,
+                new MessageDeduplicator.SummaryListener() {
+                    @Override
+                    public void onRepeated(String source, String message, long occurrences, long windowSeconds) {
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        summarized.countDown();
+                    }
+                });
+
+        assertTrue(deduplicator.shouldSend(new Message("error", "host-1", DateTime.now())));
+        assertFalse(deduplicator.shouldSend(new Message("error", "host-1", DateTime.now())));
+        // Evicts the repeated message; the summary waits for the latch, the new message must not.
+        assertTrue(deduplicator.shouldSend(new Message("error", "host-2", DateTime.now())));
+        assertEquals(1L, summarized.getCount());
+
+        release.countDown();
+        assertTrue(summarized.await(5, TimeUnit.SECONDS));
+        deduplicator.stop();
+    }
+}
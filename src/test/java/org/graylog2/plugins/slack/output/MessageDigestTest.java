@@ -0,0 +1,73 @@
+package org.graylog2.plugins.slack.output;
+
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MessageDigestTest {
+    @Test
+    public void summarizesMessagesOfInterval() {
+        final MessageDigest digest = new MessageDigest(0, 2, null, null);
+        for (int i = 0; i < 3; i++) {
+            digest.add(message("disk full", "db-1", 3));
+        }
+        digest.add(message("login failed", "web-1", 4));
+        digest.add(message("login failed", "web-1", "4"));
+        digest.add(message("started", "web-2", null));
+
+        final MessageDigest.Summary summary = digest.flush();
+
+        assertNotNull(summary);
+        assertEquals(6, summary.getCount());
+        assertEquals(Long.valueOf(3), summary.getLevelCounts().get("Error"));
+        assertEquals(Long.valueOf(2), summary.getLevelCounts().get("Warning"));
+        assertEquals(Long.valueOf(1), summary.getLevelCounts().get("Unknown"));
+        assertEquals(2, summary.getTopSources().size());
+        assertEquals("db-1", summary.getTopSources().get(0).getItem());
+        assertEquals("disk full", summary.getTopMessages().get(0).getItem());
+        assertEquals(3, summary.getTopMessages().get(0).getCount());
+    }
+
+    @Test
+    public void flushStartsNewInterval() {
+        final MessageDigest digest = new MessageDigest(0, 5, null, null);
+        digest.add(message("disk full", "db-1", 3));
+
+        assertNotNull(digest.flush());
+        assertNull(digest.flush());
+    }
+
+    @Test
+    public void stopPublishesRemainingMessages() {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final AtomicReference<MessageDigest.Summary> published = new AtomicReference<>();
+        final MessageDigest digest = new MessageDigest(60, 5, scheduler, new MessageDigest.DigestListener() {
+            @Override
+            public void onDigest(MessageDigest.Summary summary) {
+                published.set(summary);
+            }
+        });
+        digest.add(message("disk full", "db-1", 3));
+
+        digest.stop();
+        scheduler.shutdownNow();
+
+        assertEquals(1, published.get().getCount());
+    }
+
+    private static Message message(String text, String source, Object level) {
+        final Message message = new Message(text, source, DateTime.now());
+        if (level != null) {
+            message.addField("level", level);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,45 @@
+package org.graylog2.plugins.slack.output;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSamplerTest {
+    private static final MessageSampler.SummaryListener NO_SUMMARY = new MessageSampler.SummaryListener() {
+        @Override
+        public void onSkipped(long skipped, long intervalSeconds) {
+        }
+    };
+
+    @Test
+    public void everyNthSendsFirstOfEachGroup() {
+        final MessageSampler sampler = new MessageSampler(MessageSampler.Mode.EVERY_NTH, 3, 0, null, NO_SUMMARY);
+
+        assertTrue(sampler.sample());
+        assertFalse(sampler.sample());
+        assertFalse(sampler.sample());
+        assertTrue(sampler.sample());
+        assertEquals(2, sampler.getSkippedCount());
+    }
+
+    @Test
+    public void rateSendsAtMostNPerMinute() {
+        final MessageSampler sampler = new MessageSampler(MessageSampler.Mode.RATE, 2, 0, null, NO_SUMMARY);
+
+        assertTrue(sampler.sample());
+        assertTrue(sampler.sample());
+        assertFalse(sampler.sample());
+        assertEquals(1, sampler.getSkippedCount());
+    }
+
+    @Test
+    public void percentageOfHundredSendsEverything() {
+        final MessageSampler sampler = new MessageSampler(MessageSampler.Mode.PERCENTAGE, 100, 0, null, NO_SUMMARY);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sampler.sample());
+        }
+    }
+}
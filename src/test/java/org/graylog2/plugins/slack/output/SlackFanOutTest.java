@@ -0,0 +1,60 @@
+package org.graylog2.plugins.slack.output;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugins.slack.SlackMetrics;
+import org.graylog2.plugins.slack.SlackTarget;
+import org.graylog2.plugins.slack.SlackTestSupport.RecordingClient;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryQueue;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.graylog2.plugins.slack.SlackTestSupport.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlackFanOutTest {
+    private final SlackDeliveryService service = new SlackDeliveryService(2);
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void fullTargetDoesNotBlockOthers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingClient slowClient = new RecordingClient(release);
+        final RecordingClient fastClient = new RecordingClient();
+        final SlackDeliveryQueue slow = queue(slowClient, 1);
+        final SlackDeliveryQueue fast = queue(fastClient, 10);
+        final SlackFanOut fanOut = new SlackFanOut(ImmutableList.of(
+                new SlackFanOut.Target(new SlackTarget("http://slow/", "#slow"), slow, null, null),
+                new SlackFanOut.Target(new SlackTarget("http://fast/", "#fast"), fast, null, null)
+        ), null);
+
+        // The first message is taken by the blocked worker, the second fills the slow queue.
+        assertTrue(fanOut.submit(message("first")));
+        slowClient.awaitStarted(5, TimeUnit.SECONDS);
+        assertTrue(fanOut.submit(message("second")));
+        assertFalse(fanOut.submit(message("third")));
+        assertEquals(1, slow.getDroppedCount());
+
+        release.countDown();
+        fanOut.stop(5, TimeUnit.SECONDS);
+        assertEquals(2, slowClient.getSent().size());
+        assertEquals(3, fastClient.getSent().size());
+    }
+
+    private SlackDeliveryQueue queue(RecordingClient client, int capacity) {
+        return new SlackDeliveryQueue(service, new RateLimitedSender(client, new TokenBucket(1000.0d, 1000)),
+                SlackMetrics.unregistered(), capacity, 1, SlackDeliveryService.Priority.NORMAL, 1,
+                SlackDeliveryQueue.OverflowPolicy.BLOCK, null, 0L);
+    }
+}
@@ -0,0 +1,166 @@
+package org.graylog2.plugins.slack.output;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackText;
+import org.graylog2.plugins.slack.template.MessageTemplate;
+import org.graylog2.streams.StreamImpl;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlackMessageBatcherTest {
+    private static final long MAX_DELAY_MILLIS = 300L;
+
+    private final RecordingFanOut fanOut = new RecordingFanOut();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final SlackMessageBatcher batcher = new SlackMessageBatcher(
+            new StreamImpl(ImmutableMap.<String, Object>of("_id", "stream", "title", "Test stream")),
+            fanOut, SlackMessageBatcher.Mode.DIGEST, 3, MAX_DELAY_MILLIS, "#FF0000", null, 16000, scheduler);
+
+    @After
+    public void tearDown() {
+        batcher.stop();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void fullBatchIsSentRightAway() throws Exception {
+        batcher.add(message("first"));
+        batcher.add(message("second"));
+        assertTrue(fanOut.submitted.isEmpty());
+
+        batcher.add(message("third"));
+
+        assertEquals(1, fanOut.submitted.size());
+        assertTrue(fanOut.submitted.get(0).getJsonString().contains("3 new messages"));
+    }
+
+    @Test
+    public void batchIsFlushedAfterDelayFromItsFirstMessage() throws Exception {
+        final long started = System.nanoTime();
+        batcher.add(message("first"));
+        batcher.add(message("second"));
+
+        final long flushed = fanOut.awaitSubmitted(1);
+
+        assertTrue(fanOut.submitted.get(0).getJsonString().contains("2 new messages"));
+        assertTrue(flushed - started >= TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS));
+    }
+
+    @Test
+    public void flushOfFullBatchDoesNotCutShortNextBatch() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            batcher.add(message("full batch"));
+        }
+        // The flush scheduled by the first batch mustn't flush this one early.
+        TimeUnit.MILLISECONDS.sleep(MAX_DELAY_MILLIS / 2);
+        final long started = System.nanoTime();
+        batcher.add(message("next batch"));
+
+        final long flushed = fanOut.awaitSubmitted(2);
+
+        assertTrue(fanOut.submitted.get(1).getJsonString().contains("1 new message"));
+        assertTrue(flushed - started >= TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS));
+    }
+
+    @Test
+    public void stopFlushesOpenBatch() throws Exception {
+        batcher.add(message("first"));
+
+        batcher.stop();
+
+        assertEquals(1, fanOut.submitted.size());
+    }
+
+    @Test
+    public void customMessageRendersEveryMessageOfBatch() throws Exception {
+        final SlackMessageBatcher customBatcher = new SlackMessageBatcher(
+                new StreamImpl(ImmutableMap.<String, Object>of("_id", "stream", "title", "Test stream")),
+                fanOut, SlackMessageBatcher.Mode.DIGEST, 3, MAX_DELAY_MILLIS, "#FF0000", MessageTemplate.compile("${message}"), 16000, scheduler);
+        try {
+            customBatcher.add(message("first"));
+            customBatcher.add(message("second"));
+            customBatcher.add(message("third"));
+
+            assertEquals(1, fanOut.submitted.size());
+            assertEquals("first\nsecond\nthird", text(fanOut.submitted.get(0)));
+        } finally {
+            customBatcher.stop();
+        }
+    }
+
+    @Test
+    public void customMessagesWhichDoNotFitAreCounted() throws Exception {
+        final SlackMessageBatcher customBatcher = new SlackMessageBatcher(
+                new StreamImpl(ImmutableMap.<String, Object>of("_id", "stream", "title", "Test stream")),
+                fanOut, SlackMessageBatcher.Mode.DIGEST, 10, MAX_DELAY_MILLIS, "#FF0000", MessageTemplate.compile("${message}"), 300, scheduler);
+        try {
+            for (int i = 0; i < 10; i++) {
+                customBatcher.add(message(Strings.repeat(String.valueOf(i), 100)));
+            }
+
+            final String text = text(fanOut.submitted.get(0));
+            assertTrue(text, text.startsWith(Strings.repeat("0", 100) + "\n" + Strings.repeat("1", 100) + "\n"));
+            assertTrue(text, text.endsWith("\n+8 more"));
+            assertTrue(text, SlackText.utf8Length(text) <= 300);
+        } finally {
+            customBatcher.stop();
+        }
+    }
+
+    private static String text(SlackMessage message) throws IOException {
+        return new ObjectMapper().readTree(message.getJsonBytes()).get("text").asText();
+    }
+
+    private static Message message(String text) {
+        return new Message(text, "source", DateTime.now());
+    }
+
+    private static class RecordingFanOut extends SlackFanOut {
+        private final List<SlackMessage> submitted = new CopyOnWriteArrayList<>();
+        private final List<Long> submittedAt = new CopyOnWriteArrayList<>();
+
+        RecordingFanOut() {
+            super(Collections.<Target>emptyList(), null);
+        }
+
+        @Override
+        public boolean submit(SlackMessage message) {
+            submittedAt.add(System.nanoTime());
+            submitted.add(message);
+            return true;
+        }
+
+        @Override
+        public boolean offer(SlackMessage message) {
+            return submit(message);
+        }
+
+        /**
+         * @return the time the given number of messages had been submitted.
+         */
+        long awaitSubmitted(int count) throws InterruptedException {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+            while (submittedAt.size() < count && System.nanoTime() - deadline < 0L) {
+                TimeUnit.MILLISECONDS.sleep(10L);
+            }
+            assertEquals(count, submittedAt.size());
+            return submittedAt.get(count - 1);
+        }
+    }
+}
@@ -1,16 +1,38 @@
 package org.graylog2.plugins.slack.output;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.inject.Provider;
+import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.outputs.MessageOutputConfigurationException;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.graylog2.plugins.slack.SlackText;
+import org.graylog2.plugins.slack.cluster.ClusterRateLimiter;
+import org.graylog2.plugins.slack.cluster.InMemoryRateLimitStore;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.graylog2.streams.StreamImpl;
+import org.joda.time.DateTime;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 public class SlackMessageOutputTest {
     private static final ImmutableMap<String, Object> VALID_CONFIG_SOURCE = ImmutableMap.<String, Object>builder()
@@ -50,6 +72,122 @@ public class SlackMessageOutputTest {
         new SlackMessageOutput(null, validConfigurationWithValue("channel", "@john"));
     }
 
+    @Test
+    public void oversizedMessagesAreSplitIntoLimitedNumberOfPosts() throws Exception {
+        final Map<String, Object> config = Maps.newHashMap(VALID_CONFIG_SOURCE);
+        config.remove("custom_message");
+        config.put("max_text_size", 256);
+        config.put("oversize_policy", "SPLIT");
+        config.put("max_split_parts", 3);
+        final SlackMessageOutput output = new SlackMessageOutput(
+                new StreamImpl(ImmutableMap.<String, Object>of("_id", "stream", "title", "Test stream")), new Configuration(config));
+        try {
+            final List<SlackMessage> messages = output.createMessages(
+                    new Message(Strings.repeat("x", 10000), "host-1", DateTime.now()), null);
+
+            assertEquals(3, messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                final String text = text(messages.get(i));
+                assertTrue(text, text.startsWith("(" + (i + 1) + "/3) "));
+                assertTrue(text, SlackText.utf8Length(text) <= 256);
+            }
+            assertTrue(text(messages.get(2)).endsWith(SlackText.ELLIPSIS));
+        } finally {
+            output.stop();
+        }
+    }
+
+    @Test
+    public void messagesWhichFitAreNotCut() throws Exception {
+        final Map<String, Object> config = Maps.newHashMap(VALID_CONFIG_SOURCE);
+        config.remove("custom_message");
+        config.put("max_text_size", 256);
+        config.put("oversize_policy", "SPLIT");
+        final SlackMessageOutput output = new SlackMessageOutput(
+                new StreamImpl(ImmutableMap.<String, Object>of("_id", "stream", "title", "Test stream")), new Configuration(config));
+        try {
+            final List<SlackMessage> messages = output.createMessages(
+                    new Message(Strings.repeat("x", 400), "host-1", DateTime.now()), null);
+
+            assertEquals(2, messages.size());
+            assertTrue(text(messages.get(0)).startsWith("(1/2) "));
+            assertTrue(text(messages.get(1)).endsWith("x"));
+        } finally {
+            output.stop();
+        }
+    }
+
+    @Test
+    public void spoolCanBeReopenedAfterStop() throws Exception {
+        final Path directory = Files.createTempDirectory("slack-spool");
+        try {
+            final Configuration configuration = validConfigurationWithValue("spool_directory", directory.toString());
+
+            new SlackMessageOutput(null, configuration).stop();
+            // Would fail with "already in use" if the first output had kept the spool directory locked.
+            new SlackMessageOutput(null, configuration).stop();
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void clusterRateLimiterIsOnlyResolvedIfEnabled() throws Exception {
+        final Provider<ClusterRateLimiter> provider = new Provider<ClusterRateLimiter>() {
+            @Override
+            public ClusterRateLimiter get() {
+                throw new AssertionError("The cluster rate limit is disabled.");
+            }
+        };
+
+        new SlackMessageOutput(new MetricRegistry(), SlackDeliveryService.defaultInstance(), provider, null,
+                new Configuration(VALID_CONFIG_SOURCE)).stop();
+    }
+
+    @Test
+    public void stoppedOutputReleasesClusterShare() throws Exception {
+        final String webhookUrl = "https://hooks.slack.com/services/T0/B0/cluster";
+        final InMemoryRateLimitStore store = new InMemoryRateLimitStore();
+        final ClusterRateLimiter node = new ClusterRateLimiter(store, "a", 0L);
+        final ClusterRateLimiter otherNode = new ClusterRateLimiter(store, "b", 0L);
+        final TokenBucket otherBucket = new TokenBucket(1.0d, 2);
+        otherNode.register(webhookUrl, otherBucket);
+        final Map<String, Object> config = Maps.newHashMap(VALID_CONFIG_SOURCE);
+        config.put("webhook_url", webhookUrl);
+        config.put("rate_burst", 2);
+        config.put("cluster_rate_limit", true);
+
+        final SlackMessageOutput output = new SlackMessageOutput(new MetricRegistry(), SlackDeliveryService.defaultInstance(),
+                new Provider<ClusterRateLimiter>() {
+                    @Override
+                    public ClusterRateLimiter get() {
+                        return node;
+                    }
+                }, null, new Configuration(config));
+        otherNode.renewAll();
+        assertEquals(1, otherBucket.getBurst());
+
+        output.stop();
+        otherNode.renewAll();
+        assertEquals(2, otherBucket.getBurst());
+    }
+
+    private static void delete(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     private Configuration validConfigurationWithout(final String key) {
         return new Configuration(Maps.filterEntries(VALID_CONFIG_SOURCE, new Predicate<Map.Entry<String, Object>>() {
             @Override
@@ -66,4 +204,7 @@ public class SlackMessageOutputTest {
         return new Configuration(confCopy);
     }
 
+    private static String text(SlackMessage message) throws Exception {
+        return new ObjectMapper().readTree(message.getJsonBytes()).path("text").asText();
+    }
 }
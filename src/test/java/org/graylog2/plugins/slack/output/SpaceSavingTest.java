@@ -0,0 +1,50 @@
+package org.graylog2.plugins.slack.output;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTest {
+    @Test
+    public void countsExactlyWithinCapacity() {
+        final SpaceSaving<String> spaceSaving = new SpaceSaving<>(3);
+        add(spaceSaving, "a", 5);
+        add(spaceSaving, "b", 2);
+        add(spaceSaving, "c", 7);
+
+        final List<SpaceSaving.Entry<String>> top = spaceSaving.top(2);
+
+        assertEquals(2, top.size());
+        assertEquals("c", top.get(0).getItem());
+        assertEquals(7, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals("a", top.get(1).getItem());
+    }
+
+    @Test
+    public void findsHeavyHittersInConstantSpace() {
+        final SpaceSaving<String> spaceSaving = new SpaceSaving<>(10);
+        for (int i = 0; i < 10000; i++) {
+            spaceSaving.add("noise-" + i);
+            if (i % 4 == 0) {
+                spaceSaving.add("frequent");
+            }
+        }
+
+        final SpaceSaving.Entry<String> top = spaceSaving.top(1).get(0);
+
+        assertEquals(10, spaceSaving.size());
+        assertEquals("frequent", top.getItem());
+        assertTrue(top.getCount() >= 2500);
+        assertTrue(top.getCount() - top.getError() <= 2500);
+    }
+
+    private static void add(SpaceSaving<String> spaceSaving, String item, int times) {
+        for (int i = 0; i < times; i++) {
+            spaceSaving.add(item);
+        }
+    }
+}
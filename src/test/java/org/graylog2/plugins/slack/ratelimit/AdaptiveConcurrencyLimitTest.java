@@ -0,0 +1,85 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import org.graylog2.plugins.slack.SlackTestSupport.FakeTicker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class AdaptiveConcurrencyLimitTest {
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    @Test
+    public void fastResponsesRaiseLimitUpToMaximum() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 4, new FakeTicker());
+        assertEquals(1, limit.getLimit());
+
+        limit.onSuccess(RTT);
+        assertEquals(2, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSuccess(RTT);
+        }
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void slowResponsesCutLimitOncePerRoundTrip() {
+        final FakeTicker ticker = new FakeTicker();
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10, ticker);
+        for (int i = 0; i < 100; i++) {
+            limit.onSuccess(RTT);
+        }
+        assertEquals(10, limit.getLimit());
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        limit.onSuccess(3 * RTT);
+        limit.onSuccess(3 * RTT);
+        assertEquals(9, limit.getLimit());
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        limit.onOverload(RTT);
+        assertEquals(8, limit.getLimit());
+    }
+
+    @Test
+    public void limitStaysAboveMinimum() {
+        final FakeTicker ticker = new FakeTicker();
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 10, ticker);
+
+        for (int i = 0; i < 20; i++) {
+            ticker.advance(1, TimeUnit.SECONDS);
+            limit.onOverload(RTT);
+        }
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void changedBoundsApplyToCurrentLimit() {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10, new FakeTicker());
+        for (int i = 0; i < 100; i++) {
+            limit.onSuccess(RTT);
+        }
+        assertEquals(10, limit.getLimit());
+
+        limit.setBounds(2, 4);
+        assertEquals(4, limit.getLimit());
+
+        limit.setBounds(6, 8);
+        assertEquals(6, limit.getLimit());
+        assertEquals(6, limit.getMinLimit());
+        assertEquals(8, limit.getMaxLimit());
+    }
+
+    @Test
+    public void webhookLimitTakesBoundsOfLatestCaller() {
+        final String webhookUrl = "https://hooks.slack.com/services/T0/B0/concurrency";
+        final AdaptiveConcurrencyLimit limit = SlackRateLimiters.concurrencyLimitForWebhook(webhookUrl, 1, 4);
+
+        assertSame(limit, SlackRateLimiters.concurrencyLimitForWebhook(webhookUrl, 2, 16));
+        assertEquals(2, limit.getMinLimit());
+        assertEquals(16, limit.getMaxLimit());
+    }
+}
@@ -0,0 +1,37 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugins.slack.SlackClient;
+import org.graylog2.plugins.slack.SlackMessage;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.graylog2.plugins.slack.SlackTestSupport.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RateLimitedSenderTest {
+    @Test
+    public void rateLimitedMessageWithoutDeadlineIsEventuallyGivenUp() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final SlackClient client = new SlackClient(new Configuration(ImmutableMap.<String, Object>of("webhook_url", "http://localhost/"))) {
+            @Override
+            public void send(SlackMessage message) throws SlackClientException {
+                attempts.incrementAndGet();
+                throw new SlackClientException("rate limited", 429, 1L);
+            }
+        };
+        final RateLimitedSender sender = new RateLimitedSender(client, new TokenBucket(1000.0d, 1000));
+
+        try {
+            sender.send(message("test"));
+            fail("Expected the rate limit to be passed on.");
+        } catch (SlackClient.SlackClientException e) {
+            assertTrue(e.isRateLimited());
+        }
+        assertEquals(10, attempts.get());
+    }
+}
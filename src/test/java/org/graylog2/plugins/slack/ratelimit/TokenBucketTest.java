@@ -0,0 +1,113 @@
+package org.graylog2.plugins.slack.ratelimit;
+
+import org.graylog2.plugins.slack.SlackTestSupport.FakeTicker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+    @Test
+    public void allowsBurstThenPacesRequests() {
+        final FakeTicker ticker = new FakeTicker();
+        final TokenBucket bucket = new TokenBucket(1.0d, 2, ticker);
+
+        assertEquals(0L, bucket.tryAcquire());
+        assertEquals(0L, bucket.tryAcquire());
+        assertEquals(TimeUnit.SECONDS.toNanos(1L), bucket.tryAcquire());
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertEquals(0L, bucket.tryAcquire());
+    }
+
+    @Test
+    public void reserveIsLeftForMoreImportantRequests() {
+        final FakeTicker ticker = new FakeTicker();
+        final TokenBucket bucket = new TokenBucket(1.0d, 4, ticker);
+
+        // With a reserve of one token, only three of the four tokens may be taken.
+        assertEquals(0L, bucket.tryAcquire(1.0d));
+        assertEquals(0L, bucket.tryAcquire(1.0d));
+        assertEquals(0L, bucket.tryAcquire(1.0d));
+        assertEquals(TimeUnit.SECONDS.toNanos(1L), bucket.tryAcquire(1.0d));
+        assertEquals(0L, bucket.tryAcquire());
+    }
+
+    @Test
+    public void reserveLeavesOneTokenUsable() {
+        final TokenBucket bucket = new TokenBucket(1.0d, 1, new FakeTicker());
+
+        assertEquals(0L, bucket.tryAcquire(0.5d));
+    }
+
+    @Test
+    public void pauseBlocksUntilRetryAfterHasPassed() {
+        final FakeTicker ticker = new FakeTicker();
+        final TokenBucket bucket = new TokenBucket(10.0d, 5, ticker);
+
+        bucket.pause(30, TimeUnit.SECONDS);
+        assertEquals(TimeUnit.SECONDS.toNanos(30L), bucket.tryAcquire());
+
+        ticker.advance(30, TimeUnit.SECONDS);
+        assertEquals(0L, bucket.tryAcquire());
+        // No burst right after the pause.
+        assertTrue(bucket.tryAcquire() > 0L);
+    }
+
+    @Test
+    public void acquireGivesUpIfTimeoutWouldBeExceeded() throws InterruptedException {
+        final FakeTicker ticker = new FakeTicker();
+        final TokenBucket bucket = new TokenBucket(1.0d, 1, ticker);
+
+        assertTrue(bucket.acquire(0, TimeUnit.SECONDS));
+        assertFalse(bucket.acquire(500, TimeUnit.MILLISECONDS));
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertTrue(bucket.acquire(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void webhookBucketTakesRateOfLatestCaller() {
+        final String webhookUrl = "https://hooks.slack.com/services/T0/B0/rate";
+        final TokenBucket bucket = SlackRateLimiters.forWebhook(webhookUrl, 60, 3);
+        assertEquals(3, bucket.getBurst());
+
+        assertSame(bucket, SlackRateLimiters.forWebhook(webhookUrl, 120, 1));
+        assertEquals(1, bucket.getBurst());
+        assertEquals(0L, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() <= TimeUnit.MILLISECONDS.toNanos(500L));
+    }
+
+    @Test
+    public void sharedBucketKeepsShareOfChangedRate() {
+        final FakeTicker ticker = new FakeTicker();
+        final TokenBucket bucket = new TokenBucket(1.0d, 2, ticker);
+        bucket.setShares(2);
+        assertEquals(1, bucket.getBurst());
+
+        bucket.setRate(2.0d, 8);
+        assertEquals(4, bucket.getBurst());
+        ticker.advance(10L, TimeUnit.SECONDS);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0L, bucket.tryAcquire());
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(1L), bucket.tryAcquire());
+
+        bucket.setShares(1);
+        assertEquals(8, bucket.getBurst());
+    }
+
+    @Test
+    public void sharedBurstsDoNotExceedBurst() {
+        for (int burst = 1; burst <= 10; burst++) {
+            for (int shares = 1; shares <= burst; shares++) {
+                assertTrue(TokenBucket.shareOfBurst(burst, shares) * shares <= burst);
+            }
+        }
+        assertEquals(1, TokenBucket.shareOfBurst(2, 3));
+    }
+}
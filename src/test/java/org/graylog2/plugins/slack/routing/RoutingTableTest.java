@@ -0,0 +1,53 @@
+package org.graylog2.plugins.slack.routing;
+
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RoutingTableTest {
+    private final RoutingTable routingTable = RoutingTable.compile(
+            "level <= 3 -> #alerts danger\n"
+                    + "source =~ ^db- && facility != cron -> #dba; "
+                    + "message = ping -> #noise");
+
+    @Test
+    public void firstMatchingRuleWins() {
+        final Message message = message("error", "db-1");
+        message.addField("level", 2);
+
+        final RoutingTable.Route route = routingTable.route(message);
+        assertEquals("#alerts", route.getChannel());
+        assertEquals("danger", route.getColor());
+    }
+
+    @Test
+    public void allConditionsOfRuleMustMatch() {
+        final Message message = message("error", "db-1");
+        message.addField("facility", "mysql");
+        assertEquals("#dba", routingTable.route(message).getChannel());
+        assertNull(routingTable.route(message).getColor());
+
+        message.addField("facility", "cron");
+        assertNull(routingTable.route(message));
+    }
+
+    @Test
+    public void numericConditionsParseStringValues() {
+        final Message message = message("ping", "web-1");
+        message.addField("level", "6");
+
+        assertEquals("#noise", routingTable.route(message).getChannel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRuleIsRejected() {
+        RoutingTable.compile("level <= high -> #alerts");
+    }
+
+    private static Message message(String text, String source) {
+        return new Message(text, source, DateTime.now());
+    }
+}
@@ -0,0 +1,132 @@
+package org.graylog2.plugins.slack.spool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SlackSpoolTest {
+    private static final int SEGMENT_SIZE = 1024;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("slack-spool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void recordsAreReadInOrderAcrossSegments() throws Exception {
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 1024L * 1024L, 0L)) {
+            for (int i = 0; i < 50; i++) {
+                spool.append(payload("message " + i));
+            }
+
+            for (int i = 0; i < 50; i++) {
+                final SlackSpool.Record record = spool.take(1, TimeUnit.SECONDS);
+                assertEquals("message " + i, text(record));
+                spool.remove(record);
+            }
+            assertTrue(spool.isEmpty());
+        }
+    }
+
+    @Test
+    public void undeliveredRecordsSurviveRestart() throws Exception {
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 1024L * 1024L, 0L)) {
+            spool.append(payload("first"));
+            spool.append(payload("second"));
+            spool.remove(spool.take(1, TimeUnit.SECONDS));
+        }
+
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 1024L * 1024L, 0L)) {
+            final SlackSpool.Record record = spool.take(1, TimeUnit.SECONDS);
+            assertEquals("second", text(record));
+            spool.remove(record);
+            assertNull(spool.take(10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void corruptRecordSkipsRestOfSegment() throws Exception {
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 1024L * 1024L, 0L)) {
+            spool.append(payload("first"));
+            spool.append(payload("second"));
+        }
+
+        // Flip a byte of the first payload.
+        final Path segment = directory.resolve(String.format("%020d.seg", 0));
+        final byte[] content = Files.readAllBytes(segment);
+        content[16] ^= 0xFF;
+        Files.write(segment, content, StandardOpenOption.TRUNCATE_EXISTING);
+
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 1024L * 1024L, 0L)) {
+            spool.append(payload("third"));
+            final SlackSpool.Record record = spool.take(1, TimeUnit.SECONDS);
+            assertEquals("third", text(record));
+        }
+    }
+
+    @Test
+    public void oldestSegmentsAreDiscardedWhenFull() throws Exception {
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 2L * SEGMENT_SIZE, 0L)) {
+            for (int i = 0; i < 100; i++) {
+                spool.append(payload("message " + i));
+            }
+
+            assertEquals(2L * SEGMENT_SIZE, spool.sizeInBytes());
+            assertTrue(spool.getDiscardedSegmentCount() > 0);
+            assertTrue(!"message 0".equals(text(spool.take(1, TimeUnit.SECONDS))));
+        }
+    }
+
+    @Test
+    public void removingRecordOfDiscardedSegmentContinuesWithOldestRecord() throws Exception {
+        try (final SlackSpool spool = new SlackSpool(directory, SEGMENT_SIZE, 2L * SEGMENT_SIZE, 0L)) {
+            spool.append(payload("message 0"));
+            final SlackSpool.Record taken = spool.take(1, TimeUnit.SECONDS);
+            assertEquals("message 0", text(taken));
+
+            for (int i = 1; i < 100; i++) {
+                spool.append(payload("message " + i));
+            }
+            assertTrue(spool.getDiscardedSegmentCount() > 0);
+            assertTrue(Files.notExists(directory.resolve(String.format("%020d.seg", 0))));
+
+            spool.remove(taken);
+
+            final SlackSpool.Record head = spool.take(1, TimeUnit.SECONDS);
+            assertTrue(!"message 0".equals(text(head)));
+            spool.remove(head);
+        }
+    }
+
+    private static byte[] payload(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(SlackSpool.Record record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+package org.graylog2.plugins.slack.spool;
+
+import org.graylog2.plugins.slack.SlackMetrics;
+import org.graylog2.plugins.slack.SlackTestSupport.RecordingClient;
+import org.graylog2.plugins.slack.delivery.SlackDeliveryService;
+import org.graylog2.plugins.slack.ratelimit.RateLimitedSender;
+import org.graylog2.plugins.slack.ratelimit.TokenBucket;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.graylog2.plugins.slack.SlackTestSupport.message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpoolReplayerTest {
+    private final SlackDeliveryService service = new SlackDeliveryService(1);
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("slack-spool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        service.shutdown();
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void spooledMessagesAreReplayedInOrderThroughDeliveryService() throws Exception {
+        final RecordingClient client = new RecordingClient();
+        final SlackMetrics metrics = SlackMetrics.unregistered();
+        try (final SlackSpool spool = new SlackSpool(directory, 1024, 1024L * 1024L, 0L)) {
+            for (int i = 0; i < 3; i++) {
+                spool.append(message("message " + i).getJsonBytes());
+            }
+
+            final SpoolReplayer replayer = new SpoolReplayer(spool,
+                    new RateLimitedSender(client, new TokenBucket(1000.0d, 1000)), service, metrics);
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+            while (!spool.isEmpty() && System.nanoTime() - deadline < 0L) {
+                TimeUnit.MILLISECONDS.sleep(10L);
+            }
+            replayer.stop();
+
+            assertTrue(spool.isEmpty());
+            assertEquals(3, client.getSent().size());
+            assertEquals(3L, metrics.replayed().getCount());
+            for (int i = 0; i < 3; i++) {
+                assertTrue(client.getSent().get(i).getJsonString().contains("message " + i));
+            }
+        }
+    }
+}
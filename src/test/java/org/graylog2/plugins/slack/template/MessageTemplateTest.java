@@ -0,0 +1,37 @@
+package org.graylog2.plugins.slack.template;
+
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageTemplateTest {
+    private final Message message = new Message("Disk full", "db-01", new DateTime(2016, 5, 1, 12, 0, DateTimeZone.UTC));
+
+    @Test
+    public void renderReplacesMessageFields() {
+        message.addField("level", 3);
+
+        final MessageTemplate template = MessageTemplate.compile("[${level}] ${source}: ${message}");
+
+        assertEquals("[3] db-01: Disk full", template.render(null, message));
+    }
+
+    @Test
+    public void renderKeepsStaticMessage() {
+        assertEquals("static message", MessageTemplate.compile("static message").render(null, message));
+    }
+
+    @Test
+    public void renderIgnoresMissingFieldsAndUnterminatedPlaceholders() {
+        assertEquals("a  b ${c", MessageTemplate.compile("a ${missing} b ${c").render(null, message));
+    }
+
+    @Test
+    public void compileCachesTemplates() {
+        assertSame(MessageTemplate.compile("${source}"), MessageTemplate.compile("${source}"));
+    }
+}
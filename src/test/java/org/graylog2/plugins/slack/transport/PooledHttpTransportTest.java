@@ -0,0 +1,79 @@
+package org.graylog2.plugins.slack.transport;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.graylog2.plugins.slack.SlackTestSupport.WebhookStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PooledHttpTransportTest {
+    private WebhookStub stub;
+    private URL url;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new WebhookStub();
+        url = new URL(stub.url("/hook"));
+    }
+
+    @After
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Test
+    public void postSendsUtf8BodyAndReturnsResponse() throws IOException {
+        final PooledHttpTransport transport = new PooledHttpTransport(new TransportSettings(1000, 1000, 1));
+
+        final SlackResponse response = transport.post(url, "application/json", "{\"text\":\"Grüße\"}".getBytes(Charsets.UTF_8));
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("ok", response.getBody());
+        assertEquals("{\"text\":\"Grüße\"}", stub.getBodies().get(0));
+        assertEquals("18", stub.getLastContentLength());
+    }
+
+    @Test
+    public void largeBodiesAreCompressedIfEnabled() throws IOException {
+        final PooledHttpTransport transport = new PooledHttpTransport(new TransportSettings(1000, 1000, 1, true));
+        final String json = "{\"text\":\"" + Strings.repeat("stack trace line\\n", 500) + "\"}";
+
+        transport.post(url, "application/json", json.getBytes(Charsets.UTF_8));
+
+        assertEquals(json, stub.getBodies().get(0));
+        assertTrue(Integer.parseInt(stub.getLastContentLength()) < json.length() / 4);
+    }
+
+    @Test
+    public void connectionIsReusedAfterErrorResponse() throws IOException {
+        final PooledHttpTransport transport = new PooledHttpTransport(new TransportSettings(1000, 1000, 1));
+
+        stub.respond(400, "invalid_payload");
+        assertEquals("invalid_payload", transport.post(url, "application/json", new byte[]{'{', '}'}).getBody());
+        stub.respond(200, "ok");
+        transport.post(url, "application/json", new byte[]{'{', '}'});
+        transport.post(url, "application/json", new byte[]{'{', '}'});
+
+        assertEquals(1, stub.getClients().size());
+    }
+
+    @Test
+    public void connectionsAreSharedPerHost() throws IOException {
+        final PooledHttpTransport transport = (PooledHttpTransport) SlackTransports.forUrl(
+                new URL("https://hooks.slack.com/services/A"), new TransportSettings(1000, 1000, 2));
+        // Different timeouts and compression, but the same host.
+        final PooledHttpTransport other = (PooledHttpTransport) SlackTransports.forUrl(
+                new URL("https://hooks.slack.com:443/services/B"), new TransportSettings(2000, 5000, 3, true));
+
+        assertSame(transport.getConnections(), other.getConnections());
+        assertEquals(3, transport.getConnections().getMaxConnections());
+    }
+}